@@ -2,3 +2,7 @@
 set -eu
 
 dev dfa tokens.rxp src/main/resources/jmus/tokens.dfa ids src/main/java/jmus/MusUtil.java
+
+# Compile the DFA into the TokenTables class used by SongLexer
+mvn -q compile exec:java -Dexec.mainClass=jmus.LexerGenerator \
+  -Dexec.args="src/main/resources/jmus/tokens.dfa src/main/java/jmus/TokenTables.java"
@@ -0,0 +1,161 @@
+package jmus;
+
+import static jmus.MusUtil.*;
+import static js.base.Tools.*;
+
+import java.io.File;
+import java.nio.file.FileSystems;
+import java.nio.file.PathMatcher;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import jmus.gen.SongConfig;
+import jmus.gen.Style;
+import js.base.BaseObject;
+import js.file.Files;
+
+/**
+ * Renders every song in a directory (or matching a glob, e.g.
+ * "charts/*.txt") to a png, using a pool of worker threads
+ */
+public final class BatchRenderer extends BaseObject {
+
+  public BatchRenderer(SongConfig config) {
+    mConfig = config;
+  }
+
+  /**
+   * Determine if an input file refers to a batch of songs, i.e. a directory or
+   * a glob pattern
+   */
+  public static boolean isBatchInput(File input) {
+    return input.isDirectory() || isGlob(input.getName());
+  }
+
+  public void render() {
+    List<File> sources = sourceFiles();
+    if (sources.isEmpty())
+      throw badArg("No song files found:", mConfig.input());
+
+    if (!Files.empty(mConfig.output()))
+      Files.S.mkdirs(mConfig.output());
+    warmCaches();
+
+    int threadCount = mConfig.threads();
+    if (threadCount <= 0)
+      threadCount = Runtime.getRuntime().availableProcessors();
+    threadCount = Math.min(threadCount, sources.size());
+    log("rendering", sources.size(), "songs with", threadCount, "threads");
+
+    long startTime = System.nanoTime();
+    ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+    List<Future<?>> futures = arrayList();
+    try {
+      for (File sourceFile : sources) {
+        // Each task constructs its own PagePlotter, so workers never share one
+        futures.add(executor.submit(() -> SongOper.renderSong(mConfig, sourceFile, outputFile(sourceFile))));
+      }
+
+      List<String> failures = mFailures;
+      failures.clear();
+      for (int i = 0; i < sources.size(); i++) {
+        try {
+          futures.get(i).get();
+        } catch (ExecutionException e) {
+          Throwable cause = e.getCause();
+          failures.add(sources.get(i) + ": " + ifNullOrEmpty(cause.getMessage(), cause.toString()));
+        } catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        }
+      }
+      reportSummary(sources.size(), failures, System.nanoTime() - startTime);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Load the shared, lazily-initialized resources before starting any workers,
+   * so the workers only ever read them
+   */
+  private void warmCaches() {
+    keyMap();
+    Style style = style(mConfig.style());
+    FontProfile.forPaint(style.paintChord());
+    FontProfile.forPaint(style.paintChordSmall());
+  }
+
+  /**
+   * Get the descriptions of the songs that failed to render, from the most
+   * recent call to render()
+   */
+  public List<String> failures() {
+    return mFailures;
+  }
+
+  private void reportSummary(int songCount, List<String> failures, long elapsedNanos) {
+    double seconds = elapsedNanos / 1e9;
+    int rendered = songCount - failures.size();
+    pr("Rendered", rendered, "of", songCount, "songs in", String.format("%.2f", seconds), "s",
+        String.format("(%.1f songs/sec)", rendered / Math.max(seconds, 1e-6)));
+    if (!failures.isEmpty()) {
+      pr("Failures:", failures.size());
+      for (String failure : failures)
+        pr("  " + failure);
+    }
+  }
+
+  /**
+   * Find the songs to render, in the order they are to be rendered
+   */
+  List<File> sourceFiles() {
+    File input = mConfig.input();
+    File dir;
+    String pattern;
+    if (input.isDirectory()) {
+      dir = input;
+      pattern = "*." + SOURCE_EXTENSION;
+    } else {
+      dir = input.getAbsoluteFile().getParentFile();
+      pattern = input.getName();
+    }
+    PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+
+    List<File> files = arrayList();
+    File[] candidates = dir.listFiles();
+    if (candidates != null) {
+      for (File f : candidates) {
+        if (f.isFile() && matcher.matches(f.toPath().getFileName()))
+          files.add(f);
+      }
+    }
+    // Schedule the biggest songs first, so a long song doesn't start at the end of the run
+    // and leave the other workers idle
+    files.sort((a, b) -> Long.compare(b.length(), a.length()));
+    return files;
+  }
+
+  private File outputFile(File sourceFile) {
+    File outFile = sourceFile;
+    // If an output was given, treat it as a directory to write the pngs to
+    if (!Files.empty(mConfig.output()))
+      outFile = new File(mConfig.output(), sourceFile.getName());
+    return Files.setExtension(outFile, SongOper.outputExtension(mConfig));
+  }
+
+  private static boolean isGlob(String name) {
+    for (int i = 0; i < name.length(); i++) {
+      if ("*?[{".indexOf(name.charAt(i)) >= 0)
+        return true;
+    }
+    return false;
+  }
+
+  private static final String SOURCE_EXTENSION = "txt";
+
+  private final SongConfig mConfig;
+  private final List<String> mFailures = arrayList();
+}
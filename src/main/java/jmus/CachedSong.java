@@ -0,0 +1,251 @@
+package jmus;
+
+import static js.base.Tools.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import jmus.gen.Chord;
+import jmus.gen.MusicSection;
+import jmus.gen.SectionType;
+import jmus.gen.Song;
+
+/**
+ * A Song in a compact binary encoding, whose sections are decoded lazily.
+ *
+ * Format (integers are unsigned LEB128 varints unless noted):
+ *
+ * <pre>
+ *   'J' 'M' 'S' FORMAT_VERSION         (bytes)
+ *   section count
+ *   length (in bytes) of each section
+ *   sections
+ * </pre>
+ *
+ * Each section is:
+ *
+ * <pre>
+ *   type                               (byte: SectionType ordinal)
+ *   flags                              (byte: 1 if text_arg present)
+ *   [text_arg: length, UTF-8 bytes]
+ *   [int_arg, for BEATS sections]
+ *   chord count
+ *   chords
+ * </pre>
+ *
+ * Each chord is its scalar PackedChord code, with bit 11 set if there is a
+ * slash chord and bits 12.. holding the beat number + 1; followed by the slash
+ * chord's scalar code, if there is one.
+ *
+ * Not thread safe
+ */
+public final class CachedSong {
+
+  public static final int FORMAT_VERSION = 1;
+
+  public static byte[] encode(Song song) {
+    Encoder sections = new Encoder();
+    int[] sectionLengths = new int[song.sections().size()];
+    int i = INIT_INDEX;
+    for (MusicSection section : song.sections()) {
+      i++;
+      int start = sections.size();
+      encodeSection(sections, section);
+      sectionLengths[i] = sections.size() - start;
+    }
+
+    Encoder e = new Encoder();
+    e.writeByte('J');
+    e.writeByte('M');
+    e.writeByte('S');
+    e.writeByte(FORMAT_VERSION);
+    e.writeVarint(sectionLengths.length);
+    for (int length : sectionLengths)
+      e.writeVarint(length);
+    e.write(sections);
+    return e.toByteArray();
+  }
+
+  /**
+   * Construct from encoded bytes; throws IllegalArgumentException if they are
+   * not in the expected format
+   */
+  public CachedSong(byte[] data) {
+    mData = data;
+    if (data.length < 4 || data[0] != 'J' || data[1] != 'M' || data[2] != 'S' || data[3] != FORMAT_VERSION)
+      throw badArg("not an encoded song, or unsupported version");
+    mPosition = 4;
+    int count = readVarint();
+    mSectionOffsets = new int[count + 1];
+    int[] lengths = new int[count];
+    for (int i = 0; i < count; i++)
+      lengths[i] = readVarint();
+    int offset = mPosition;
+    for (int i = 0; i < count; i++) {
+      mSectionOffsets[i] = offset;
+      offset += lengths[i];
+    }
+    mSectionOffsets[count] = offset;
+    if (offset != data.length)
+      throw badArg("encoded song is truncated");
+    mSections = new MusicSection[count];
+  }
+
+  public int sectionCount() {
+    return mSections.length;
+  }
+
+  /**
+   * Get the type of a section, without decoding it
+   */
+  public SectionType sectionType(int index) {
+    return SECTION_TYPES[mData[mSectionOffsets[index]]];
+  }
+
+  /**
+   * Get a section, decoding it if it hasn't been already
+   */
+  public MusicSection section(int index) {
+    MusicSection section = mSections[index];
+    if (section == null) {
+      section = packedSection(index).toMusicSection();
+      mSections[index] = section;
+    }
+    return section;
+  }
+
+  /**
+   * Decode a section into its packed form (which is not memoized)
+   */
+  public PackedSection packedSection(int index) {
+    return decodeSection(mSectionOffsets[index]);
+  }
+
+  /**
+   * Decode the entire song
+   */
+  public Song toSong() {
+    Song.Builder b = Song.newBuilder();
+    for (int i = 0; i < sectionCount(); i++)
+      b.sections().add(section(i));
+    return b.build();
+  }
+
+  // ------------------------------------------------------------------
+  // Encoding
+  // ------------------------------------------------------------------
+
+  private static final int FLAG_TEXT = 1;
+  private static final int CHORD_HAS_SLASH = 1 << PackedChord.SCALAR_BITS;
+  private static final int CHORD_BEAT_SHIFT = PackedChord.SCALAR_BITS + 1;
+
+  private static void encodeSection(Encoder e, MusicSection section) {
+    e.writeByte(section.type().ordinal());
+    String text = section.textArg();
+    e.writeByte(text != null ? FLAG_TEXT : 0);
+    if (text != null) {
+      byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+      e.writeVarint(bytes.length);
+      e.write(bytes, bytes.length);
+    }
+    if (section.type() == SectionType.BEATS)
+      e.writeVarint(section.intArg());
+
+    e.writeVarint(section.chords().size());
+    for (Chord chord : section.chords()) {
+      int code = PackedChord.fromChord(chord);
+      int value = (code & PackedChord.SCALAR_MASK)
+          | ((PackedChord.beatNumber(code) + 1) << CHORD_BEAT_SHIFT);
+      if (PackedChord.hasSlash(code))
+        value |= CHORD_HAS_SLASH;
+      e.writeVarint(value);
+      if (PackedChord.hasSlash(code))
+        e.writeVarint(PackedChord.slash(code));
+    }
+  }
+
+  private PackedSection decodeSection(int offset) {
+    mPosition = offset;
+    SectionType type = SECTION_TYPES[mData[mPosition++]];
+    String textArg = null;
+    int intArg = 0;
+    int flags = mData[mPosition++];
+    if ((flags & FLAG_TEXT) != 0) {
+      int length = readVarint();
+      textArg = new String(mData, mPosition, length, StandardCharsets.UTF_8);
+      mPosition += length;
+    }
+    if (type == SectionType.BEATS)
+      intArg = readVarint();
+
+    int[] codes = new int[readVarint()];
+    for (int i = 0; i < codes.length; i++) {
+      int value = readVarint();
+      int code = PackedChord.withBeatNumber(value & PackedChord.SCALAR_MASK,
+          (value >>> CHORD_BEAT_SHIFT) - 1);
+      if ((value & CHORD_HAS_SLASH) != 0)
+        code = PackedChord.withSlash(code, readVarint());
+      codes[i] = code;
+    }
+    return new PackedSection(type, textArg, intArg, codes);
+  }
+
+  private int readVarint() {
+    int value = 0;
+    int shift = 0;
+    while (true) {
+      int b = mData[mPosition++];
+      value |= (b & 0x7f) << shift;
+      if ((b & 0x80) == 0)
+        return value;
+      shift += 7;
+    }
+  }
+
+  /**
+   * A growable byte buffer with varint support
+   */
+  private static final class Encoder {
+
+    void writeByte(int b) {
+      if (mSize == mBytes.length)
+        mBytes = Arrays.copyOf(mBytes, mSize * 2);
+      mBytes[mSize++] = (byte) b;
+    }
+
+    void writeVarint(int value) {
+      while ((value & ~0x7f) != 0) {
+        writeByte((value & 0x7f) | 0x80);
+        value >>>= 7;
+      }
+      writeByte(value);
+    }
+
+    void write(byte[] bytes, int length) {
+      for (int i = 0; i < length; i++)
+        writeByte(bytes[i]);
+    }
+
+    void write(Encoder other) {
+      write(other.mBytes, other.mSize);
+    }
+
+    int size() {
+      return mSize;
+    }
+
+    byte[] toByteArray() {
+      return Arrays.copyOf(mBytes, mSize);
+    }
+
+    private byte[] mBytes = new byte[256];
+    private int mSize;
+  }
+
+  private static final SectionType[] SECTION_TYPES = SectionType.values();
+
+  private final byte[] mData;
+  private final int[] mSectionOffsets;
+  private final MusicSection[] mSections;
+  private int mPosition;
+}
@@ -1,77 +1,150 @@
 package jmus;
 
 import java.awt.Font;
-import java.awt.FontMetrics;
-import java.awt.Graphics2D;
-import java.awt.image.BufferedImage;
 import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
 
+import jmus.gen.Style;
 import js.file.Files;
 import js.geometry.IRect;
+import js.graphics.Paint;
+import js.json.JSList;
 import js.json.JSMap;
 
+import static jmus.MusUtil.*;
 import static js.base.Tools.*;
 
 public final class CharAdjustmentMap {
 
   public static final boolean DEBUG = false && alert("DEBUG in effect");
 
-  // The list of characters that we will construct adjustments for
+  // Characters that are measured (in a single batch) when a map is constructed, as most chord
+  // labels contain some of them; other characters are measured when they are first looked up
   //
-  private static String sAlphabet = "♭♯⁻⁺ᵒ²⁴⁵⁶⁷⁹";
+  private static final String sAlphabet = "♭♯⁻⁺ᵒ²⁴⁵⁶⁷⁹";
 
-  public static CharAdjustmentMap forFont(Font font) {
-    String key = fontKey(font);
-
-    // See if we have it in our memory cache
-    CharAdjustmentMap adjustmentMap = sMemoryCache.get(key);
-    if (adjustmentMap != null)
-      return adjustmentMap;
-
-    // See if it is in a cache
-    File cacheFile = new File(cacheDir(), key + ".json");
-    if (cacheFile.exists()) {
-      files().log("reading from cache:", cacheFile);
-      JSMap json = JSMap.from(cacheFile);
-      if (sAlphabet.equals(json.opt("alphabet", ""))) {
-        adjustmentMap = new CharAdjustmentMap();
-        adjustmentMap.parse(json);
-      } else
-        files().log("cached map had wrong version");
-    }
-    if (adjustmentMap == null) {
-      adjustmentMap = new CharAdjustmentMap();
-      BufferedImage canvas = TextUtil.constructCanvasImage();
-      Graphics2D g = canvas.createGraphics();
-      g.setFont(font);
-      FontMetrics metr = g.getFontMetrics();
-
-      String str = sAlphabet;
-      for (int i = 0; i < str.length(); i++) {
-        char c = str.charAt(i);
-        IRect bounds = TextUtil.calcCharacterBounds(g, canvas, metr, c);
-        adjustmentMap.mCharInfoMap.put(c, bounds);
+  // Characters whose adjustments are bundled as a resource: those of every chord label
+  private static final String BUNDLED_CHARACTERS = sAlphabet + "ABCDEFG1234567./";
+
+  // Version of the measuring algorithm; cached maps with other versions are discarded
+  private static final int VERSION = 1;
+
+  // Characters below this are held in a table; others, in a map
+  private static final int TABLE_SIZE = 0x2700;
+
+  // Marks a character that has been measured, but draws nothing (so has no bounds)
+  private static final IRect NO_BOUNDS = new IRect(0, 0, 0, 0);
+
+  // System property naming the directory to use as the disk cache, overriding the default
+  public static final String CACHE_DIR_PROPERTY = "jmus.char_adjustment_cache";
+
+  /**
+   * Write the maps for the fonts of every style to a json file, to be bundled
+   * as the char_adjustments.json resource.
+   *
+   * Usage: CharAdjustmentMap [char_adjustments.json]
+   */
+  public static void main(String[] args) {
+    loadTools();
+    checkArgument(args.length == 1, "Usage: CharAdjustmentMap <json file>");
+    JSMap fonts = map();
+    for (int i = 0; i < styleCount(); i++) {
+      Style s = style(i);
+      for (Paint paint : Arrays.asList(s.paintChord(), s.paintChordSmall(), s.paintBarFrame(), s.paintTitle(),
+          s.paintSubtitle(), s.paintText(), s.paintSmallText())) {
+        CharAdjustmentMap adjustmentMap = new CharAdjustmentMap(paint.font(), null);
+        adjustmentMap.prepare(BUNDLED_CHARACTERS);
+        fonts.put(fontKey(paint.font()), adjustmentMap.toJson());
       }
-      files().writeString(cacheFile, adjustmentMap.toString());
     }
-    sMemoryCache.put(key, adjustmentMap);
+    JSMap m = map();
+    m.put("fonts", fonts);
+    Files.S.writeString(new File(args[0]), m.toString());
+  }
+
+  /**
+   * Get the map for a font. Its initial adjustments are read from the bundled
+   * resource and the disk cache, and any of the common characters that are
+   * missing are measured (and written to the disk cache). Thread safe; each
+   * font's map is constructed once
+   */
+  public static CharAdjustmentMap forFont(Font font) {
+    return sMemoryCache.computeIfAbsent(fontKey(font), key -> load(font, key));
+  }
+
+  private static CharAdjustmentMap load(Font font, String key) {
+    CharAdjustmentMap adjustmentMap = new CharAdjustmentMap(font, new File(cacheDir(), key + ".json"));
+    JSMap bundled = bundledMaps();
+    if (bundled.keySet().contains(key))
+      adjustmentMap.merge(bundled.getMap(key));
+    adjustmentMap.readCacheFile();
+    adjustmentMap.prepare(sAlphabet);
     return adjustmentMap;
   }
 
   /**
-   * Get unique string identifying this font
+   * Write a file by writing a temporary file alongside it and renaming it, so
+   * that other threads or processes reading the file never see it partially
+   * written
+   */
+  private static void writeAtomically(File file, String content) {
+    try {
+      File temp = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+      try {
+        java.nio.file.Files.write(temp.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        try {
+          java.nio.file.Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+          java.nio.file.Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+      } finally {
+        temp.delete();
+      }
+    } catch (IOException e) {
+      // The disk cache is only an optimization
+      files().log("failed to write cache file:", file, e.getMessage());
+    }
+  }
+
+  /**
+   * Get unique string identifying this font; it includes the name of the font
+   * face actually used, which differs from the requested name if that font is
+   * not installed
    */
   private static String fontKey(Font font) {
-    return font.getName() + "_" + font.getSize() + "_" + font.getStyle();
+    return font.getName() + "_" + font.getSize() + "_" + font.getStyle() + "_" + font.getFontName();
   }
 
   // In-memory cache of CharAdjustmentMaps
   //
-  private static Map<String, CharAdjustmentMap> sMemoryCache = hashMap();
+  private static final Map<String, CharAdjustmentMap> sMemoryCache = new ConcurrentHashMap<>();
+
+  /**
+   * Get the maps bundled as a resource, keyed by font
+   */
+  private static JSMap bundledMaps() {
+    return BundleHolder.MAPS;
+  }
+
+  private static final class BundleHolder {
+    static final JSMap MAPS = readBundle();
+
+    private static JSMap readBundle() {
+      return JSMap.fromResource(CharAdjustmentMap.class, "char_adjustments.json").getMap("fonts");
+    }
+  }
 
-  private static Files files() {
+  private static synchronized Files files() {
     if (sFiles == null) {
       sFiles = new Files();
       if (DEBUG)
@@ -84,49 +157,186 @@ public final class CharAdjustmentMap {
    * Get the directory (creating if necessary) to use as a disk cache for
    * CharAdjustmentMaps
    */
-  private static File cacheDir() {
+  private static synchronized File cacheDir() {
     if (sCacheDir == null) {
-      File dir = new File(Files.homeDirectory(), "Library/Caches");
-      if (dir.exists())
-        dir = new File(dir, "_charAdjustmentMapCache_");
-      else
-        dir = Files.getDesktopFile("_charAdjustmentMapCache_");
+      File dir;
+      String path = System.getProperty(CACHE_DIR_PROPERTY);
+      if (nonEmpty(path))
+        dir = new File(path);
+      else {
+        dir = new File(Files.homeDirectory(), "Library/Caches");
+        if (dir.exists())
+          dir = new File(dir, "_charAdjustmentMapCache_");
+        else
+          dir = Files.getDesktopFile("_charAdjustmentMapCache_");
+      }
       sCacheDir = files().mkdirs(dir);
     }
     return sCacheDir;
   }
 
+  /**
+   * Use a particular directory as the disk cache (or, if null, the default
+   * one), discarding any maps already in memory; for tests
+   */
+  static synchronized void setCacheDir(File dir) {
+    sCacheDir = (dir == null) ? null : files().mkdirs(dir);
+    sMemoryCache.clear();
+  }
+
   private static File sCacheDir;
   private static Files sFiles;
 
+  /**
+   * @param cacheFile
+   *          file to write the adjustments to as characters are measured, or
+   *          null
+   */
+  private CharAdjustmentMap(Font font, File cacheFile) {
+    mFont = font;
+    mCacheFile = cacheFile;
+  }
+
+  /**
+   * Get the bounds of a character's pixels (relative to its origin),
+   * measuring it if necessary; returns null if it draws nothing
+   */
+  public IRect getRect(char c) {
+    IRect r = lookup(c);
+    if (r == null) {
+      prepare(String.valueOf(c));
+      r = lookup(c);
+    }
+    return (r == NO_BOUNDS) ? null : r;
+  }
+
+  /**
+   * Measure those characters of some text that haven't been measured yet, in
+   * a single batch, and add them to the disk cache
+   */
+  public void prepare(CharSequence text) {
+    if (measured(text))
+      return;
+    synchronized (this) {
+      StringBuilder unmeasured = new StringBuilder();
+      for (int i = 0; i < text.length(); i++) {
+        char c = text.charAt(i);
+        if (lookup(c) == null && unmeasured.indexOf(String.valueOf(c)) < 0)
+          unmeasured.append(c);
+      }
+      if (unmeasured.length() == 0)
+        return;
+      IRect[] bounds = TextUtil.calcCharacterBounds(mFont, unmeasured.toString());
+      for (int i = 0; i < bounds.length; i++)
+        store(unmeasured.charAt(i), (bounds[i] != null) ? bounds[i] : NO_BOUNDS);
+      writeCacheFile();
+    }
+  }
+
+  private boolean measured(CharSequence text) {
+    for (int i = 0; i < text.length(); i++)
+      if (lookup(text.charAt(i)) == null)
+        return false;
+    return true;
+  }
+
+  /**
+   * Get a character's bounds (or NO_BOUNDS) if it has been measured, else
+   * null. Doesn't require synchronization, as IRects are immutable
+   */
+  private IRect lookup(char c) {
+    if (c < TABLE_SIZE)
+      return mTable[c];
+    return mOtherChars.get(c);
+  }
+
+  private void store(char c, IRect bounds) {
+    if (c < TABLE_SIZE)
+      mTable[c] = bounds;
+    else
+      mOtherChars.put(c, bounds);
+  }
+
+  /**
+   * Add the adjustments of the cache file (if there is one) to the map
+   */
+  private synchronized void readCacheFile() {
+    if (!mCacheFile.exists())
+      return;
+    files().log("reading from cache:", mCacheFile);
+    try {
+      if (!merge(JSMap.from(mCacheFile)))
+        files().log("cached map had wrong version");
+    } catch (Throwable t) {
+      files().log("cached map is unreadable:", t.getMessage());
+    }
+  }
+
+  /**
+   * Write the map to the cache file, first adding any adjustments that other
+   * processes have written to it. A lock on a sibling file keeps other
+   * processes from writing the file between the read and the write
+   */
+  private synchronized void writeCacheFile() {
+    if (mCacheFile == null)
+      return;
+    File lockFile = new File(mCacheFile.getPath() + ".lock");
+    try (FileChannel channel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE); FileLock lock = channel.lock()) {
+      readCacheFile();
+      writeAtomically(mCacheFile, toString());
+    } catch (IOException e) {
+      // The disk cache is only an optimization
+      files().log("failed to lock cache file:", lockFile, e.getMessage());
+    }
+  }
+
   public JSMap toJson() {
     JSMap m = map();
-    m.put("alphabet", sAlphabet);
+    m.put("version", VERSION);
     JSMap entries = map();
     m.put("entries", entries);
-    for (Entry<Character, IRect> ent : mCharInfoMap.entrySet()) {
-      entries.put(ent.getKey().toString(), ent.getValue());
-    }
+    for (int c = 0; c < TABLE_SIZE; c++)
+      if (mTable[c] != null)
+        putEntry(entries, (char) c, mTable[c]);
+    for (Entry<Character, IRect> ent : mOtherChars.entrySet())
+      putEntry(entries, ent.getKey(), ent.getValue());
     return m;
   }
 
+  private static void putEntry(JSMap entries, char c, IRect bounds) {
+    String key = Character.toString(c);
+    if (bounds == NO_BOUNDS)
+      entries.put(key, list());
+    else
+      entries.put(key, bounds);
+  }
+
   @Override
   public String toString() {
     return toJson().toString();
   }
 
-  public IRect getRect(char c) {
-    return mCharInfoMap.get(c);
-  }
-
-  private void parse(JSMap m) {
+  /**
+   * Add the adjustments of characters that haven't been measured from a json
+   * map; returns false if its version is wrong
+   */
+  private boolean merge(JSMap m) {
+    if (m.opt("version", VERSION) != VERSION)
+      return false;
     JSMap entries = m.getMap("entries");
     for (String k : entries.keySet()) {
-      IRect r = IRect.DEFAULT_INSTANCE.parse(entries.getList(k));
-      mCharInfoMap.put(k.charAt(0), r);
+      char c = k.charAt(0);
+      if (lookup(c) != null)
+        continue;
+      JSList bounds = entries.getList(k);
+      store(c, bounds.size() == 0 ? NO_BOUNDS : IRect.DEFAULT_INSTANCE.parse(bounds));
     }
+    return true;
   }
 
-  private Map<Character, IRect> mCharInfoMap = hashMap();
-
+  private final Font mFont;
+  private final File mCacheFile;
+  private final IRect[] mTable = new IRect[TABLE_SIZE];
+  private final Map<Character, IRect> mOtherChars = new ConcurrentHashMap<>();
 }
@@ -0,0 +1,193 @@
+package jmus;
+
+import static jmus.MusUtil.*;
+import static js.base.Tools.*;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import jmus.gen.Accidental;
+import jmus.gen.ChordType;
+import jmus.gen.MusicKey;
+import jmus.gen.OptType;
+import jmus.gen.Style;
+
+/**
+ * The labels of every chord in a particular key (or, if the key is null, the
+ * Nashville numbers), indexed by PackedChord code.
+ *
+ * Labels of chords without slash chords are built when the table is
+ * constructed; those with slash chords are built the first time they are
+ * requested. Thread safe
+ */
+public final class ChordLabels {
+
+  /**
+   * Get the labels for a key (which may be null)
+   */
+  public static ChordLabels forKey(MusicKey key) {
+    if (key == null)
+      return NASHVILLE;
+    synchronized (sKeyMap) {
+      ChordLabels labels = sKeyMap.get(key);
+      if (labels == null) {
+        labels = new ChordLabels(key);
+        sKeyMap.put(key, labels);
+      }
+      return labels;
+    }
+  }
+
+  private ChordLabels(MusicKey key) {
+    mKey = key;
+    for (int number = 0; number <= 7; number++)
+      for (Accidental acc : Accidental.values())
+        for (ChordType type : ChordType.values())
+          for (OptType opt : OptType.values()) {
+            int code = PackedChord.pack(number, acc, type, opt);
+            // Only beat placeholders have no number
+            if (number != 0 || type == ChordType.BEAT)
+              mLabels[code] = buildLabel(code, new StringBuilder()).toString().intern();
+          }
+  }
+
+  /**
+   * Get the label for a chord, including its slash chord (if any)
+   */
+  public String label(int code) {
+    String main = scalarLabel(code & PackedChord.SCALAR_MASK);
+    if (!PackedChord.hasSlash(code) || PackedChord.type(code) == ChordType.BEAT)
+      return main;
+
+    int scalar = code & PackedChord.SCALAR_MASK;
+    int slash = PackedChord.slash(code);
+    AtomicReferenceArray<String> row = mSlashLabels.get(scalar);
+    if (row == null) {
+      mSlashLabels.compareAndSet(scalar, null, new AtomicReferenceArray<>(1 << PackedChord.SCALAR_BITS));
+      row = mSlashLabels.get(scalar);
+    }
+    String label = row.get(slash);
+    if (label == null) {
+      // If another thread is also building this label, use whichever is stored first
+      row.compareAndSet(slash, null, main + "/" + scalarLabel(slash));
+      label = row.get(slash);
+    }
+    return label;
+  }
+
+  /**
+   * Get the horizontal offset at which to plot a chord's label, relative to
+   * its location in the layout. Labels of chords (without slash chords) that
+   * are especially long are shifted to the left
+   */
+  public int xOffset(int code, Style style) {
+    if (PackedChord.hasSlash(code) || scalarLabel(code & PackedChord.SCALAR_MASK).length() <= 2)
+      return 0;
+    return (int) (-style.meanChordWidthPixels() * .18f);
+  }
+
+  private String scalarLabel(int scalar) {
+    String label = mLabels[scalar];
+    if (label == null)
+      throw badArg("no label for chord:", PackedChord.toChord(scalar));
+    return label;
+  }
+
+  private static final int[] numberToKeyIndex = { 0, 2, 4, 5, 7, 9, 11 };
+  private static final int[] numberToKeyIndexFlat = { 11, 1, 3, 4, 6, 8, 10 };
+  private static final int[] numberToKeyIndexSharp = { 1, 3, 4, 6, 8, 10, 0 };
+
+  private StringBuilder buildLabel(int code, StringBuilder sb) {
+    ChordType type = PackedChord.type(code);
+    if (type == ChordType.BEAT) {
+      sb.append(".");
+      return sb;
+    }
+
+    if (mKey != null) {
+      int cn = PackedChord.number(code) - 1;
+
+      int keyIndex;
+
+      switch (PackedChord.accidental(code)) {
+      case NONE:
+        keyIndex = numberToKeyIndex[cn];
+        break;
+      default:
+        throw notSupported(PackedChord.accidental(code));
+      case FLAT:
+        keyIndex = numberToKeyIndexFlat[cn];
+        break;
+      case SHARP:
+        keyIndex = numberToKeyIndexSharp[cn];
+        break;
+      }
+
+      sb.append(mKey.keys().get(keyIndex));
+      if (EXTRA_CHARS)
+        sb.append("♯");
+
+    } else {
+
+      switch (PackedChord.accidental(code)) {
+      default:
+        break;
+      case FLAT:
+        sb.append('♭');
+        break;
+      case SHARP:
+        sb.append('♯');
+        break;
+      }
+
+      sb.append(PackedChord.number(code));
+    }
+
+    switch (type) {
+    default:
+      break;
+    case MINOR:
+      //  sb.append('ᵐ');
+      sb.append('⁻');
+      break;
+    case AUGMENTED:
+      sb.append('⁺');
+      break;
+    case DIMINISHED:
+      sb.append('ᵒ');
+      break;
+    }
+
+    switch (PackedChord.optType(code)) {
+    default:
+      break;
+    case TWO:
+      sb.append('²');
+      break;
+    case FOUR:
+      sb.append('⁴');
+      break;
+    case FIVE:
+      sb.append('⁵');
+      break;
+    case SIX:
+      sb.append('⁶');
+      break;
+    case SEVEN:
+      sb.append('⁷');
+      break;
+    case NINE:
+      sb.append('⁹');
+      break;
+    }
+    return sb;
+  }
+
+  private static final Map<MusicKey, ChordLabels> sKeyMap = hashMap();
+  private static final ChordLabels NASHVILLE = new ChordLabels(null);
+
+  private final MusicKey mKey;
+  private final String[] mLabels = new String[1 << PackedChord.SCALAR_BITS];
+  private final AtomicReferenceArray<AtomicReferenceArray<String>> mSlashLabels = new AtomicReferenceArray<>(
+      1 << PackedChord.SCALAR_BITS);
+}
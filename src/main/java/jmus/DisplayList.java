@@ -0,0 +1,301 @@
+package jmus;
+
+import static js.base.Tools.*;
+
+import java.util.Arrays;
+import java.util.List;
+
+import jmus.PagePlotter.PlotRow;
+import jmus.gen.MusicKey;
+import jmus.gen.SectionType;
+import jmus.gen.Style;
+import js.data.IntArray;
+import js.graphics.Paint;
+
+/**
+ * The result of laying out a song: an immutable list of drawing operations,
+ * in page coordinates, that a PagePlotter can replay (any number of times).
+ *
+ * Operations are held in parallel arrays. Each has a type, a location, and
+ * up to three type-specific arguments:
+ *
+ * <pre>
+ *   OP_BAR     bar frame; location is top left; args are width, height
+ *   OP_CHORD   chord; location is top left; args are PackedChord code, key index
+ *   OP_TEXT    text section; location is start of baseline; args are string index, SectionType ordinal
+ *   OP_FILL    filled rectangle; location is top left; args are width, height, paint index
+ *   OP_LINE    line; location is start; args are end x, end y, paint index
+ *   OP_STRING  text; location is start of baseline; args are string index, (unused), paint index
+ * </pre>
+ *
+ * The operations are ordered by row; the list also describes the rows, and
+ * which operations belong to each
+ */
+public final class DisplayList {
+
+  public static final int OP_BAR = 0;
+  public static final int OP_CHORD = 1;
+  public static final int OP_TEXT = 2;
+  public static final int OP_FILL = 3;
+  public static final int OP_LINE = 4;
+  public static final int OP_STRING = 5;
+
+  public Style style() {
+    return mStyle;
+  }
+
+  /**
+   * Get the number of operations
+   */
+  public int size() {
+    return mSize;
+  }
+
+  public int op(int index) {
+    return mOps[index];
+  }
+
+  public int x(int index) {
+    return mX[index];
+  }
+
+  public int y(int index) {
+    return mY[index];
+  }
+
+  public int arg0(int index) {
+    return mArg0[index];
+  }
+
+  public int arg1(int index) {
+    return mArg1[index];
+  }
+
+  public int arg2(int index) {
+    return mArg2[index];
+  }
+
+  /**
+   * Get the key of an OP_CHORD operation (which may be null)
+   */
+  public MusicKey key(int index) {
+    return mKeys[mArg1[index]];
+  }
+
+  /**
+   * Get the paint of an OP_FILL, OP_LINE or OP_STRING operation
+   */
+  public Paint paint(int index) {
+    return mPaints[mArg2[index]];
+  }
+
+  /**
+   * Get the string of an OP_TEXT or OP_STRING operation
+   */
+  public String text(int index) {
+    return mStrings[mArg0[index]];
+  }
+
+  /**
+   * Get the SectionType of an OP_TEXT operation
+   */
+  public SectionType textType(int index) {
+    return SECTION_TYPES[mArg1[index]];
+  }
+
+  public List<PlotRow> rows() {
+    return mRows;
+  }
+
+  /**
+   * Get the index of the first operation of a row; if the row index equals the
+   * number of rows, returns size()
+   */
+  public int rowStart(int rowIndex) {
+    return mRowStarts[rowIndex];
+  }
+
+  /**
+   * Get a copy of this display list in which the chords that were laid out
+   * without a key (i.e., before any key section) are in a particular key. The
+   * layout doesn't depend upon the key, so the copy shares this list's
+   * operations
+   */
+  public DisplayList withKey(MusicKey key) {
+    DisplayList d = new DisplayList();
+    d.mStyle = mStyle;
+    d.mSize = mSize;
+    d.mOps = mOps;
+    d.mX = mX;
+    d.mY = mY;
+    d.mArg0 = mArg0;
+    d.mArg1 = mArg1;
+    d.mArg2 = mArg2;
+    d.mKeys = mKeys.clone();
+    for (int i = 0; i < d.mKeys.length; i++)
+      if (d.mKeys[i] == null)
+        d.mKeys[i] = key;
+    d.mStrings = mStrings;
+    d.mPaints = mPaints;
+    d.mRows = arrayList();
+    for (PlotRow row : mRows) {
+      if (row.key == null)
+        row = new PlotRow(row.sections, key, row.beatsPerBar, row.y, row.height);
+      d.mRows.add(row);
+    }
+    d.mRowStarts = mRowStarts;
+    return d;
+  }
+
+  public static Builder newBuilder(Style style) {
+    return new Builder(style);
+  }
+
+  public static final class Builder {
+
+    private Builder(Style style) {
+      mStyle = style;
+    }
+
+    public void addBar(int x, int y, int width, int height) {
+      add(OP_BAR, x, y, width, height, 0);
+    }
+
+    public void addChord(int x, int y, int code, MusicKey key) {
+      if (mKeyCount == 0 || mKeys[mKeyCount - 1] != key) {
+        if (mKeyCount == mKeys.length)
+          mKeys = Arrays.copyOf(mKeys, mKeyCount * 2);
+        mKeys[mKeyCount++] = key;
+      }
+      add(OP_CHORD, x, y, code, mKeyCount - 1, 0);
+    }
+
+    public void addText(int x, int y, String text, SectionType type) {
+      add(OP_TEXT, x, y, stringIndex(text), type.ordinal(), 0);
+    }
+
+    public void addFill(int x, int y, int width, int height, Paint paint) {
+      add(OP_FILL, x, y, width, height, paintIndex(paint));
+    }
+
+    public void addLine(int x0, int y0, int x1, int y1, Paint paint) {
+      add(OP_LINE, x0, y0, x1, y1, paintIndex(paint));
+    }
+
+    public void addString(int x, int y, String text, Paint paint) {
+      add(OP_STRING, x, y, stringIndex(text), 0, paintIndex(paint));
+    }
+
+    /**
+     * Mark the start of a new row's operations
+     */
+    public void startRow() {
+      mRowStarts.add(mSize);
+    }
+
+    /**
+     * Add the description of the row started by the most recent call to
+     * startRow()
+     */
+    public void addRow(PlotRow row) {
+      mRows.add(row);
+    }
+
+    /**
+     * Get the number of operations added so far
+     */
+    public int size() {
+      return mSize;
+    }
+
+    public DisplayList build() {
+      DisplayList d = new DisplayList();
+      d.mStyle = mStyle;
+      d.mSize = mSize;
+      d.mOps = Arrays.copyOf(mOps, mSize);
+      d.mX = Arrays.copyOf(mX, mSize);
+      d.mY = Arrays.copyOf(mY, mSize);
+      d.mArg0 = Arrays.copyOf(mArg0, mSize);
+      d.mArg1 = Arrays.copyOf(mArg1, mSize);
+      d.mArg2 = Arrays.copyOf(mArg2, mSize);
+      d.mKeys = Arrays.copyOf(mKeys, mKeyCount);
+      d.mStrings = Arrays.copyOf(mStrings, mStringCount);
+      d.mPaints = mPaints.toArray(new Paint[0]);
+      d.mRows = arrayList();
+      d.mRows.addAll(mRows);
+      d.mRowStarts = Arrays.copyOf(mRowStarts.array(), mRows.size() + 1);
+      d.mRowStarts[mRows.size()] = mSize;
+      return d;
+    }
+
+    private int stringIndex(String text) {
+      if (mStringCount == mStrings.length)
+        mStrings = Arrays.copyOf(mStrings, mStringCount * 2);
+      mStrings[mStringCount] = text;
+      return mStringCount++;
+    }
+
+    private int paintIndex(Paint paint) {
+      int index = mPaints.indexOf(paint);
+      if (index < 0) {
+        index = mPaints.size();
+        mPaints.add(paint);
+      }
+      return index;
+    }
+
+    private void add(int op, int x, int y, int arg0, int arg1, int arg2) {
+      if (mSize == mOps.length) {
+        int capacity = mSize * 2;
+        mOps = Arrays.copyOf(mOps, capacity);
+        mX = Arrays.copyOf(mX, capacity);
+        mY = Arrays.copyOf(mY, capacity);
+        mArg0 = Arrays.copyOf(mArg0, capacity);
+        mArg1 = Arrays.copyOf(mArg1, capacity);
+        mArg2 = Arrays.copyOf(mArg2, capacity);
+      }
+      mOps[mSize] = op;
+      mX[mSize] = x;
+      mY[mSize] = y;
+      mArg0[mSize] = arg0;
+      mArg1[mSize] = arg1;
+      mArg2[mSize] = arg2;
+      mSize++;
+    }
+
+    private final Style mStyle;
+    private int mSize;
+    private int[] mOps = new int[256];
+    private int[] mX = new int[256];
+    private int[] mY = new int[256];
+    private int[] mArg0 = new int[256];
+    private int[] mArg1 = new int[256];
+    private int[] mArg2 = new int[256];
+    private MusicKey[] mKeys = new MusicKey[4];
+    private int mKeyCount;
+    private String[] mStrings = new String[16];
+    private int mStringCount;
+    private final List<Paint> mPaints = arrayList();
+    private final List<PlotRow> mRows = arrayList();
+    private final IntArray.Builder mRowStarts = IntArray.newBuilder();
+  }
+
+  private DisplayList() {
+  }
+
+  private static final SectionType[] SECTION_TYPES = SectionType.values();
+
+  private Style mStyle;
+  private int mSize;
+  private int[] mOps;
+  private int[] mX;
+  private int[] mY;
+  private int[] mArg0;
+  private int[] mArg1;
+  private int[] mArg2;
+  private MusicKey[] mKeys;
+  private String[] mStrings;
+  private Paint[] mPaints;
+  private List<PlotRow> mRows;
+  private int[] mRowStarts;
+}
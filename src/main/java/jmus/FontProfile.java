@@ -0,0 +1,167 @@
+package jmus;
+
+import static js.base.Tools.*;
+
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import js.geometry.IRect;
+import js.graphics.Paint;
+
+/**
+ * The measurements of a font needed to position chord labels: each
+ * character's shift and advance (from its CharAdjustmentMap bounds, if it
+ * has any), held in a table indexed by character, plus the font's ascent and
+ * height.
+ *
+ * Characters are added to the table as they are first seen, so the cost of
+ * looking one up doesn't depend on how many are known. Thread safe
+ */
+public final class FontProfile {
+
+  /**
+   * Get the profile of a paint's font, as drawn on a page
+   */
+  public static FontProfile forPaint(Paint paint) {
+    return forFont(paint.font());
+  }
+
+  /**
+   * Get the profile of a font, as drawn on a page
+   */
+  public static FontProfile forFont(Font font) {
+    synchronized (sProfileMap) {
+      FontProfile profile = sProfileMap.get(font);
+      if (profile == null) {
+        Graphics2D g = SongLayout.scratchGraphics();
+        g.setFont(font);
+        profile = new FontProfile(g.getFontMetrics());
+        g.dispose();
+        sProfileMap.put(font, profile);
+      }
+      return profile;
+    }
+  }
+
+  /**
+   * Construct a profile of a font from particular metrics
+   */
+  FontProfile(FontMetrics metrics) {
+    mMetrics = metrics;
+    mAscent = metrics.getAscent();
+    mHeight = metrics.getHeight();
+    mAdjustments = CharAdjustmentMap.forFont(metrics.getFont());
+  }
+
+  public int ascent() {
+    return mAscent;
+  }
+
+  public int height() {
+    return mHeight;
+  }
+
+  /**
+   * Determine the x offsets at which to plot each character of some text
+   *
+   * @param positions
+   *          array to store the offsets in, or null; if it is too small, a
+   *          larger one is allocated
+   * @return an array containing the offsets, and (as an extra element,
+   *         following the last character's) the width of the text
+   */
+  public int[] charPositions(String text, int[] positions) {
+    int length = text.length();
+    if (positions == null || positions.length <= length)
+      positions = new int[length + 1];
+    int x = 0;
+    for (int i = 0; i < length; i++) {
+      char c = text.charAt(i);
+      int entry = lookup(c);
+      if (entry == 0)
+        entry = entry(text, c);
+      x += (entry >>> 16) - ENTRY_BIAS;
+      positions[i] = x;
+      x += (entry & 0xffff) - ENTRY_BIAS;
+    }
+    positions[length] = x;
+    return positions;
+  }
+
+  /**
+   * Get the width of some text, with its characters positioned as
+   * charPositions() would position them
+   */
+  public int width(String text) {
+    int x = 0;
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      int entry = lookup(c);
+      if (entry == 0)
+        entry = entry(text, c);
+      x += (entry >>> 16) - ENTRY_BIAS + (entry & 0xffff) - ENTRY_BIAS;
+    }
+    return x;
+  }
+
+  /**
+   * Get a character's entry, or zero if it hasn't been seen yet; doesn't
+   * require synchronization
+   */
+  private int lookup(char c) {
+    if (c < TABLE_SIZE)
+      return mEntries[c];
+    Integer entry = mOtherEntries.get(c);
+    return (entry == null) ? 0 : entry;
+  }
+
+  /**
+   * Get the entry for a character that hasn't been seen, adding it if
+   * necessary. The adjustments for all of the text's characters that haven't
+   * been seen before are measured together
+   */
+  private synchronized int entry(String text, char c) {
+    int existing = lookup(c);
+    if (existing != 0)
+      return existing;
+
+    mAdjustments.prepare(text);
+    int cw = mMetrics.charWidth(c);
+    int xShift = 0;
+    IRect rect = mAdjustments.getRect(c);
+    if (rect != null) {
+      // Plot the character n pixels further to the left, and advance the
+      // cursor so the next character is drawn past the bounding rectangle
+      int leftPadding = 1;
+      int rightPadding = 1;
+      xShift = -rect.x + leftPadding;
+      cw = rect.width - xShift + rightPadding;
+    }
+    int entry = ((xShift + ENTRY_BIAS) << 16) | (cw + ENTRY_BIAS);
+    if (c < TABLE_SIZE)
+      mEntries[c] = entry;
+    else
+      mOtherEntries.put(c, entry);
+    return entry;
+  }
+
+  // Characters below this have entries in a table; others, in a map
+  private static final int TABLE_SIZE = 0x2700;
+
+  // Each entry holds a character's shift (in its upper 16 bits) and advance (in its lower 16 bits),
+  // each offset by this bias; so an entry is never zero, which indicates a character not yet seen
+  private static final int ENTRY_BIAS = 0x4000;
+
+  private static final Map<Font, FontProfile> sProfileMap = hashMap();
+
+  private final FontMetrics mMetrics;
+  private final int mAscent;
+  private final int mHeight;
+  private final CharAdjustmentMap mAdjustments;
+  // Written only while synchronized; a reader that sees a stale zero just takes the slow path
+  private final int[] mEntries = new int[TABLE_SIZE];
+  private final Map<Character, Integer> mOtherEntries = new ConcurrentHashMap<>();
+}
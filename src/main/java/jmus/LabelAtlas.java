@@ -0,0 +1,126 @@
+package jmus;
+
+import static jmus.MusUtil.*;
+import static js.base.Tools.*;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.Map;
+
+import js.geometry.Matrix;
+
+/**
+ * A cache of pre-rasterized chord labels for a particular font and color, at
+ * the page's resolution (DOTS_PER_INCH).
+ *
+ * Each label is rendered once (one character at a time, positioned using the
+ * font's FontProfile, exactly as PagePlotter would draw it) into its own
+ * small transparent sprite image. Plotting the label is then a single
+ * drawImage() of that sprite.
+ *
+ * Thread safe; a sprite is rendered before it is published (while the atlas
+ * is locked), and is never modified afterwards, so it can be drawn without
+ * locking
+ */
+public final class LabelAtlas {
+
+  /**
+   * Get the atlas for a font and color
+   */
+  public static LabelAtlas get(Font font, Color color) {
+    String key = font.getName() + "_" + font.getSize2D() + "_" + font.getStyle() + "_" + color.getRGB() + "_"
+        + DOTS_PER_INCH;
+    synchronized (sAtlasMap) {
+      LabelAtlas atlas = sAtlasMap.get(key);
+      if (atlas == null) {
+        atlas = new LabelAtlas(font, color);
+        sAtlasMap.put(key, atlas);
+      }
+      return atlas;
+    }
+  }
+
+  private LabelAtlas(Font font, Color color) {
+    mFont = font;
+    mColor = color;
+    mProfile = FontProfile.forFont(font);
+    // Leave room around each label for glyphs that extend past their advance widths
+    mMargin = (font.getSize() + 1) / 2;
+  }
+
+  /**
+   * Draw a label, with its top left corner at a location (in page coordinates)
+   */
+  public void draw(Graphics2D g, String label, int x, int y) {
+    Sprite s = sprite(label);
+    int dx = x - mMargin;
+    int dy = y - mMargin;
+    g.drawImage(s.image, dx, dy, dx + s.width, dy + s.height, 0, 0, s.image.getWidth(), s.image.getHeight(),
+        null);
+  }
+
+  /**
+   * Get the number of labels that have been rendered
+   */
+  public synchronized int size() {
+    return mSprites.size();
+  }
+
+  /**
+   * Get a label's sprite, rendering it if necessary
+   */
+  private synchronized Sprite sprite(String label) {
+    Sprite s = mSprites.get(label);
+    if (s == null) {
+      s = render(label);
+      mSprites.put(label, s);
+    }
+    return s;
+  }
+
+  /**
+   * A label's image, and its size in page (not device) units
+   */
+  private static final class Sprite {
+    Sprite(BufferedImage image, int width, int height) {
+      this.image = image;
+      this.width = width;
+      this.height = height;
+    }
+
+    final BufferedImage image;
+    final int width;
+    final int height;
+  }
+
+  private Sprite render(String label) {
+    int[] charPositions = mCharPositions = mProfile.charPositions(label, mCharPositions);
+    int width = charPositions[label.length()] + 2 * mMargin;
+    int height = mProfile.height() + 2 * mMargin;
+
+    BufferedImage image = new BufferedImage(width * DOTS_PER_INCH, height * DOTS_PER_INCH,
+        BufferedImage.TYPE_INT_ARGB);
+    Graphics2D g = image.createGraphics();
+    g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+    g.setTransform(Matrix.getScale(DOTS_PER_INCH).toAffineTransform());
+    g.setFont(mFont);
+    g.setColor(mColor);
+    int ry = mMargin + mProfile.ascent();
+    for (int i = 0; i < label.length(); i++)
+      g.drawString(Character.toString(label.charAt(i)), mMargin + charPositions[i], ry);
+    g.dispose();
+    return new Sprite(image, width, height);
+  }
+
+  private static final Map<String, LabelAtlas> sAtlasMap = hashMap();
+
+  private final Font mFont;
+  private final Color mColor;
+  private final FontProfile mProfile;
+  private final int mMargin;
+  private final Map<String, Sprite> mSprites = hashMap();
+  private int[] mCharPositions;
+}
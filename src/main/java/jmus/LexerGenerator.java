@@ -0,0 +1,214 @@
+package jmus;
+
+import static js.base.Tools.*;
+
+import java.io.File;
+
+import js.data.IntArray;
+import js.file.Files;
+import js.json.JSList;
+import js.json.JSMap;
+
+/**
+ * Compiles the DFA for song tokens (tokens.dfa, generated from tokens.rxp by
+ * the 'dev dfa' tool) into a Java class, TokenTables, so SongLexer needn't
+ * load and parse it at runtime.
+ *
+ * Usage: LexerGenerator [tokens.dfa] [TokenTables.java]
+ */
+public final class LexerGenerator {
+
+  public static void main(String[] args) {
+    loadTools();
+    checkArgument(args.length == 2, "Usage: LexerGenerator <dfa file> <java file>");
+    LexerGenerator g = new LexerGenerator(JSMap.from(new File(args[0])));
+    Files.S.writeString(new File(args[1]), g.generate());
+  }
+
+  /**
+   * Parse the json representation of a DFA.
+   *
+   * Each state is a list of edges, where each edge is a code set followed by a
+   * destination state (the destination can be omitted for the last edge if it
+   * is the final state). A code set is either a single number or a list of
+   * them; integers come in pairs representing a range [a,b), and floats
+   * represent single character codes. A negative code -(n+2) indicates the
+   * state accepts token n.
+   */
+  public LexerGenerator(JSMap json) {
+    int finalState = json.getInt("final");
+    JSList stateList = json.getList("states");
+    int stateCount = stateList.size();
+
+    JSList names = json.getList("tokens");
+    mTokenNames = new String[names.size()];
+    for (int i = 0; i < mTokenNames.length; i++)
+      mTokenNames[i] = names.get(i).toString();
+
+    mAccept = new int[stateCount];
+    mRangeStart = new int[stateCount][];
+    mRangeEnd = new int[stateCount][];
+    mRangeDest = new int[stateCount][];
+
+    for (int state = 0; state < stateCount; state++) {
+      JSList edges = (JSList) stateList.get(state);
+      IntArray.Builder starts = IntArray.newBuilder();
+      IntArray.Builder ends = IntArray.newBuilder();
+      IntArray.Builder dests = IntArray.newBuilder();
+      int acceptId = -1;
+
+      for (int i = 0; i < edges.size(); i += 2) {
+        Object codeSet = edges.get(i);
+        int dest = finalState;
+        if (i + 1 < edges.size())
+          dest = ((Number) edges.get(i + 1)).intValue();
+
+        if (codeSet instanceof Number) {
+          int c = ((Number) codeSet).intValue();
+          if (c < 0) {
+            int tokenId = -c - 2;
+            // If a state accepts more than one token, the earliest defined has priority
+            if (acceptId < 0 || tokenId < acceptId)
+              acceptId = tokenId;
+            continue;
+          }
+          addRange(starts, ends, dests, c, c + 1, dest);
+        } else {
+          JSList codes = (JSList) codeSet;
+          for (int j = 0; j < codes.size();) {
+            Number a = (Number) codes.get(j++);
+            if (isSingleCode(a))
+              addRange(starts, ends, dests, a.intValue(), a.intValue() + 1, dest);
+            else {
+              Number b = (Number) codes.get(j++);
+              addRange(starts, ends, dests, a.intValue(), b.intValue(), dest);
+            }
+          }
+        }
+      }
+      mAccept[state] = acceptId;
+      mRangeStart[state] = starts.array();
+      mRangeEnd[state] = ends.array();
+      mRangeDest[state] = dests.array();
+    }
+  }
+
+  public int stateCount() {
+    return mAccept.length;
+  }
+
+  /**
+   * Get the id of the token accepted by a state, or -1 if none
+   */
+  public int accept(int state) {
+    return mAccept[state];
+  }
+
+  /**
+   * Get the state reached from a state via a character, or -1 if there is no
+   * such transition
+   */
+  public int transition(int state, char c) {
+    int[] starts = mRangeStart[state];
+    int[] ends = mRangeEnd[state];
+    for (int i = 0; i < starts.length; i++)
+      if (c >= starts[i] && c < ends[i])
+        return mRangeDest[state][i];
+    return -1;
+  }
+
+  /**
+   * Generate the source for the TokenTables class
+   */
+  public String generate() {
+    StringBuilder sb = new StringBuilder();
+    sb.append("// Generated by LexerGenerator from tokens.dfa (DO NOT EDIT)\n");
+    sb.append("package jmus;\n\n");
+    sb.append("/**\n");
+    sb.append(" * DFA for song tokens, compiled from tokens.rxp\n");
+    sb.append(" */\n");
+    sb.append("final class TokenTables {\n\n");
+    sb.append("  private TokenTables() {\n");
+    sb.append("  }\n\n");
+
+    sb.append("  static final String[] TOKEN_NAMES = {");
+    for (int i = 0; i < mTokenNames.length; i++) {
+      if (i > 0)
+        sb.append(",");
+      sb.append(" \"").append(mTokenNames[i]).append('"');
+    }
+    sb.append(" };\n\n");
+
+    sb.append("  // Id of token accepted by each state, or -1\n");
+    sb.append("  static final int[] ACCEPT = {");
+    for (int i = 0; i < mAccept.length; i++) {
+      if (i > 0)
+        sb.append(",");
+      sb.append(i % 20 == 0 ? "\n      " : " ");
+      sb.append(mAccept[i]);
+    }
+    sb.append(" };\n\n");
+
+    sb.append("  /**\n");
+    sb.append("   * Get the state reached from a state via a character, or -1 if there is no\n");
+    sb.append("   * such transition\n");
+    sb.append("   */\n");
+    sb.append("  static int transition(int state, char c) {\n");
+    sb.append("    switch (state) {\n");
+    for (int state = 0; state < stateCount(); state++) {
+      int[] starts = mRangeStart[state];
+      if (starts.length == 0)
+        continue;
+      sb.append("    case ").append(state).append(":\n");
+      for (int i = 0; i < starts.length; i++) {
+        int start = starts[i];
+        int end = mRangeEnd[state][i];
+        sb.append("      if (");
+        if (end == start + 1)
+          sb.append("c == ").append(charLiteral(start));
+        else if (end > Character.MAX_VALUE)
+          sb.append("c >= ").append(charLiteral(start));
+        else if (start == 0)
+          sb.append("c < ").append(charLiteral(end));
+        else
+          sb.append("c >= ").append(charLiteral(start)).append(" && c < ").append(charLiteral(end));
+        sb.append(")\n");
+        sb.append("        return ").append(mRangeDest[state][i]).append(";\n");
+      }
+      sb.append("      return -1;\n");
+    }
+    sb.append("    default:\n");
+    sb.append("      return -1;\n");
+    sb.append("    }\n");
+    sb.append("  }\n");
+    sb.append("}\n");
+    return sb.toString();
+  }
+
+  private static String charLiteral(int c) {
+    if (c > ' ' && c < 0x7f && c != '\'' && c != '\\')
+      return "'" + (char) c + "'";
+    return Integer.toString(c);
+  }
+
+  private static boolean isSingleCode(Number n) {
+    return n instanceof Double || n instanceof Float;
+  }
+
+  private static void addRange(IntArray.Builder starts, IntArray.Builder ends, IntArray.Builder dests,
+      int start, int end, int dest) {
+    // We operate on (16 bit) chars, not code points
+    end = Math.min(end, Character.MAX_VALUE + 1);
+    if (start >= end)
+      return;
+    starts.add(start);
+    ends.add(end);
+    dests.add(dest);
+  }
+
+  private final String[] mTokenNames;
+  private final int[] mAccept;
+  private final int[][] mRangeStart;
+  private final int[][] mRangeEnd;
+  private final int[][] mRangeDest;
+}
@@ -51,6 +51,7 @@ public class Main extends App {
   @Override
   protected void registerOperations() {
     registerOper(new SongOper());
+    registerOper(new WatchOper());
   }
 
 }
@@ -0,0 +1,79 @@
+package jmus;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A Reader that decodes a UTF-8 file incrementally from a memory-mapped
+ * FileChannel, one window of the file at a time
+ */
+public final class MappedFileReader extends Reader {
+
+  public MappedFileReader(File file) {
+    try {
+      mChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+      mFileSize = mChannel.size();
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    mDecoder = StandardCharsets.UTF_8.newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+  }
+
+  @Override
+  public int read(char[] cbuf, int off, int len) throws IOException {
+    if (len == 0)
+      return 0;
+    CharBuffer out = CharBuffer.wrap(cbuf, off, len);
+    while (out.position() == off && !mFlushed) {
+      if (mWindow == null) {
+        if (mNextStart >= mFileSize) {
+          mDecoder.decode(EMPTY, out, true);
+          mDecoder.flush(out);
+          mFlushed = true;
+          break;
+        }
+        mWindowStart = mNextStart;
+        mWindow = mChannel.map(FileChannel.MapMode.READ_ONLY, mWindowStart,
+            Math.min(WINDOW_SIZE, mFileSize - mWindowStart));
+      }
+      boolean lastWindow = (mWindowStart + mWindow.limit() == mFileSize);
+      CoderResult result = mDecoder.decode(mWindow, out, lastWindow);
+      if (result.isOverflow())
+        break;
+
+      // The window is used up, except possibly for a partial multibyte sequence at its end;
+      // the next window will start with that sequence
+      mNextStart = lastWindow ? mFileSize : mWindowStart + mWindow.position();
+      mWindow = null;
+    }
+    int count = out.position() - off;
+    return (count == 0 && mFlushed) ? -1 : count;
+  }
+
+  @Override
+  public void close() throws IOException {
+    mChannel.close();
+  }
+
+  private static final long WINDOW_SIZE = 64 * 1024 * 1024;
+  private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+  private final FileChannel mChannel;
+  private final long mFileSize;
+  private final CharsetDecoder mDecoder;
+  private MappedByteBuffer mWindow;
+  private long mWindowStart;
+  private long mNextStart;
+  private boolean mFlushed;
+}
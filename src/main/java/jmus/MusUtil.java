@@ -5,13 +5,12 @@ import static js.base.Tools.*;
 import java.awt.Color;
 import java.awt.Font;
 import java.awt.Graphics2D;
+import java.io.StringWriter;
 import java.util.List;
 import java.util.Map;
 
 import jmus.gen.Chord;
-import jmus.gen.ChordType;
 import jmus.gen.MusicKey;
-import jmus.gen.MusicSection;
 import jmus.gen.SectionType;
 import jmus.gen.Song;
 import jmus.gen.Style;
@@ -31,101 +30,22 @@ public final class MusUtil {
   // 
   // Useful reference for unicode:  https://en.wikipedia.org/wiki/Unicode_subscripts_and_superscripts
 
-  private static final int[] numberToKeyIndex = { 0, 2, 4, 5, 7, 9, 11 };
-  private static final int[] numberToKeyIndexFlat = { 11, 1, 3, 4, 6, 8, 10 };
-  private static final int[] numberToKeyIndexSharp = { 1, 3, 4, 6, 8, 10, 0 };
-
   public static StringBuilder renderChord(Chord chord, MusicKey key, StringBuilder sb,
       Chord slashChordOrNull) {
+    int code = PackedChord.fromChord(chord) & PackedChord.SCALAR_MASK;
+    if (slashChordOrNull != null)
+      code = PackedChord.withSlash(code, PackedChord.fromChord(slashChordOrNull));
+    return renderChord(code, key, sb);
+  }
+
+  /**
+   * Render a chord (including its slash chord, if any) given its PackedChord
+   * code
+   */
+  public static StringBuilder renderChord(int code, MusicKey key, StringBuilder sb) {
     if (sb == null)
       sb = new StringBuilder();
-
-    if (chord.type() == ChordType.BEAT) {
-      sb.append(".");
-      return sb;
-    }
-
-    if (key != null) {
-      int cn = chord.number() - 1;
-
-      int keyIndex;
-
-      switch (chord.accidental()) {
-      case NONE:
-        keyIndex = numberToKeyIndex[cn];
-        break;
-      default:
-        throw notSupported(chord.accidental());
-      case FLAT:
-        keyIndex = numberToKeyIndexFlat[cn];
-        break;
-      case SHARP:
-        keyIndex = numberToKeyIndexSharp[cn];
-        break;
-      }
-
-      sb.append(key.keys().get(keyIndex));
-      if (EXTRA_CHARS)
-        sb.append("♯");
-
-    } else {
-
-      switch (chord.accidental()) {
-      default:
-        break;
-      case FLAT:
-        sb.append('♭');
-        break;
-      case SHARP:
-        sb.append('♯');
-        break;
-      }
-
-      sb.append(chord.number());
-    }
-
-    switch (chord.type()) {
-    default:
-      break;
-    case MINOR:
-      //  sb.append('ᵐ');
-      sb.append('⁻');
-      break;
-    case AUGMENTED:
-      sb.append('⁺');
-      break;
-    case DIMINISHED:
-      sb.append('ᵒ');
-      break;
-    }
-
-    switch (chord.optType()) {
-    default:
-      break;
-    case TWO:
-      sb.append('²');
-      break;
-    case FOUR:
-      sb.append('⁴');
-      break;
-    case FIVE:
-      sb.append('⁵');
-      break;
-    case SIX:
-      sb.append('⁶');
-      break;
-    case SEVEN:
-      sb.append('⁷');
-      break;
-    case NINE:
-      sb.append('⁹');
-      break;
-    }
-
-    if (slashChordOrNull != null) {
-      sb.append('/');
-      renderChord(slashChordOrNull, key, sb, null);
-    }
+    sb.append(ChordLabels.forKey(key).label(code));
     return sb;
   }
 
@@ -236,30 +156,23 @@ public final class MusUtil {
     line(g, x, y - r, x, y + 4);
   }
 
+  /**
+   * Render a song as a text chord chart (see TextChartWriter)
+   */
   public static String renderSongAsText(Song song, MusicKey key) {
-    final int CHORD_COLUMN_SIZE = 5;
-
-    StringBuilder lineBuilder = new StringBuilder();
-
-    for (MusicSection section : song.sections()) {
-      lineBuilder.append("\n");
-      int chordNum = INIT_INDEX;
-      for (Chord chord : section.chords()) {
-        chordNum++;
-        int cursor = lineBuilder.length();
-        tab(lineBuilder, cursor + chordNum * CHORD_COLUMN_SIZE);
-        renderChord(chord, key, lineBuilder, chord.slashChord());
-      }
-      lineBuilder.append("\n");
-    }
-
-    return lineBuilder.toString();
+    StringWriter writer = new StringWriter();
+    new TextChartWriter(writer).write(PackedSection.pack(song), key);
+    return writer.toString();
   }
 
   public static Style style(int index) {
     return getStyleList().get(index);
   }
 
+  public static int styleCount() {
+    return getStyleList().size();
+  }
+
   private static List<Style> getStyleList() {
     if (sStyleList == null) {
       JSMap jsonMap = JSMap.fromResource(MusUtil.class, "styles.json");
@@ -0,0 +1,228 @@
+package jmus;
+
+import static js.base.Tools.*;
+
+import jmus.gen.Accidental;
+import jmus.gen.Chord;
+import jmus.gen.ChordType;
+import jmus.gen.OptType;
+
+/**
+ * Encodes a Chord as a non-negative int:
+ *
+ * <pre>
+ *  bits  0..2    Nashville number (1..7; 0 for beat placeholders)
+ *  bits  3..4    Accidental
+ *  bits  5..7    ChordType
+ *  bits  8..10   OptType
+ *  bits 11..21   slash (base) chord, encoded as bits 0..10
+ *  bit  22       set if there is a slash chord
+ *  bits 23..30   beat number + 1
+ * </pre>
+ *
+ * The bits 0..10 are referred to as the 'scalar' part of the chord
+ */
+public final class PackedChord {
+
+  public static final int SCALAR_BITS = 11;
+  public static final int SCALAR_MASK = (1 << SCALAR_BITS) - 1;
+
+  /**
+   * The placeholder chord for an empty beat within a bar
+   */
+  public static final int BEAT;
+
+  /**
+   * The largest beat number that can be encoded
+   */
+  public static final int MAX_BEAT_NUMBER = 0xfe;
+
+  public static int pack(int number, Accidental accidental, ChordType type, OptType optType) {
+    return scalar(number, accidental.ordinal(), type.ordinal(), optType.ordinal());
+  }
+
+  /**
+   * Decode a CHORD token, [#b]?[1-7][-'+]?[245679]?, from a character buffer
+   * into its scalar code
+   *
+   * @return code, or -1 if the text isn't a valid chord
+   */
+  public static int parse(char[] chars, int start, int length) {
+    int k = start;
+    int end = start + length;
+    if (k == end)
+      return -1;
+
+    int accidental = ACC_NONE;
+    char c = chars[k];
+    if (c == 'b') {
+      accidental = ACC_FLAT;
+      k++;
+    } else if (c == '#') {
+      accidental = ACC_SHARP;
+      k++;
+    }
+    if (k == end)
+      return -1;
+
+    int number = chars[k++] - '0';
+    if (number < 1 || number > 7)
+      return -1;
+
+    int type = TYPE_MAJOR;
+    int optType = OPT_NONE;
+    while (k < end) {
+      switch (chars[k++]) {
+      default:
+        return -1;
+      case '-':
+        type = TYPE_MINOR;
+        break;
+      case '\'':
+        type = TYPE_DIMINISHED;
+        break;
+      case '+':
+        type = TYPE_AUGMENTED;
+        break;
+      case '2':
+        optType = OPT_TWO;
+        break;
+      case '4':
+        optType = OPT_FOUR;
+        break;
+      case '5':
+        optType = OPT_FIVE;
+        break;
+      case '6':
+        optType = OPT_SIX;
+        break;
+      case '7':
+        optType = OPT_SEVEN;
+        break;
+      case '9':
+        optType = OPT_NINE;
+        break;
+      }
+    }
+    return scalar(number, accidental, type, optType);
+  }
+
+  public static int withSlash(int code, int slashScalar) {
+    return (code & ~(SCALAR_MASK << SLASH_SHIFT)) | ((slashScalar & SCALAR_MASK) << SLASH_SHIFT) | HAS_SLASH;
+  }
+
+  public static int withBeatNumber(int code, int beatNumber) {
+    checkArgument(beatNumber >= -1 && beatNumber <= MAX_BEAT_NUMBER, "beat number out of range:", beatNumber);
+    return (code & ~(BEAT_NUMBER_MASK << BEAT_NUMBER_SHIFT)) | ((beatNumber + 1) << BEAT_NUMBER_SHIFT);
+  }
+
+  public static int number(int code) {
+    return code & 7;
+  }
+
+  public static Accidental accidental(int code) {
+    return ACCIDENTALS[(code >> 3) & 3];
+  }
+
+  public static ChordType type(int code) {
+    return CHORD_TYPES[(code >> 5) & 7];
+  }
+
+  public static OptType optType(int code) {
+    return OPT_TYPES[(code >> 8) & 7];
+  }
+
+  public static boolean hasSlash(int code) {
+    return (code & HAS_SLASH) != 0;
+  }
+
+  /**
+   * Get the scalar code of the slash chord; only valid if hasSlash() is true
+   */
+  public static int slash(int code) {
+    return (code >> SLASH_SHIFT) & SCALAR_MASK;
+  }
+
+  public static int beatNumber(int code) {
+    return ((code >> BEAT_NUMBER_SHIFT) & BEAT_NUMBER_MASK) - 1;
+  }
+
+  /**
+   * Find the end of a bar within a sequence of chords: the index of the first
+   * chord after the bar's start that begins a new bar (i.e., that doesn't have
+   * a positive beat number), or the length of the sequence
+   */
+  public static int barEnd(int[] codes, int barStart) {
+    int i = barStart + 1;
+    while (i < codes.length && beatNumber(codes[i]) > 0)
+      i++;
+    return i;
+  }
+
+  /**
+   * Get the Chord represented by a code. Chords without slash chords or beat
+   * numbers are shared instances
+   */
+  public static Chord toChord(int code) {
+    Chord scalar = sScalarChords[code & SCALAR_MASK];
+    if ((code & ~SCALAR_MASK) == 0)
+      return scalar;
+    Chord.Builder b = scalar.toBuilder();
+    if (hasSlash(code))
+      b.slashChord(sScalarChords[slash(code)]);
+    b.beatNumber(beatNumber(code));
+    return b.build();
+  }
+
+  /**
+   * Encode a Chord
+   */
+  public static int fromChord(Chord chord) {
+    int code = pack(chord.number(), chord.accidental(), chord.type(), chord.optType());
+    if (chord.slashChord() != null)
+      code = withSlash(code, fromChord(chord.slashChord()));
+    return withBeatNumber(code, chord.beatNumber());
+  }
+
+  private static int scalar(int number, int accidental, int type, int optType) {
+    return number | (accidental << 3) | (type << 5) | (optType << 8);
+  }
+
+  private static final Accidental[] ACCIDENTALS = Accidental.values();
+  private static final ChordType[] CHORD_TYPES = ChordType.values();
+  private static final OptType[] OPT_TYPES = OptType.values();
+
+  private static final int ACC_NONE = Accidental.NONE.ordinal();
+  private static final int ACC_FLAT = Accidental.FLAT.ordinal();
+  private static final int ACC_SHARP = Accidental.SHARP.ordinal();
+  private static final int TYPE_MAJOR = ChordType.MAJOR.ordinal();
+  private static final int TYPE_MINOR = ChordType.MINOR.ordinal();
+  private static final int TYPE_DIMINISHED = ChordType.DIMINISHED.ordinal();
+  private static final int TYPE_AUGMENTED = ChordType.AUGMENTED.ordinal();
+  private static final int OPT_NONE = OptType.NONE.ordinal();
+  private static final int OPT_TWO = OptType.TWO.ordinal();
+  private static final int OPT_FOUR = OptType.FOUR.ordinal();
+  private static final int OPT_FIVE = OptType.FIVE.ordinal();
+  private static final int OPT_SIX = OptType.SIX.ordinal();
+  private static final int OPT_SEVEN = OptType.SEVEN.ordinal();
+  private static final int OPT_NINE = OptType.NINE.ordinal();
+
+  private static final int SLASH_SHIFT = SCALAR_BITS;
+  private static final int HAS_SLASH = 1 << 22;
+  private static final int BEAT_NUMBER_SHIFT = 23;
+  private static final int BEAT_NUMBER_MASK = 0xff;
+
+  // Shared instances of every scalar chord, indexed by code
+  //
+  private static final Chord[] sScalarChords = new Chord[1 << SCALAR_BITS];
+
+  static {
+    for (int number = 0; number <= 7; number++)
+      for (Accidental acc : ACCIDENTALS)
+        for (ChordType type : CHORD_TYPES)
+          for (OptType opt : OPT_TYPES)
+            sScalarChords[pack(number, acc, type, opt)] = Chord.newBuilder().number(number).accidental(acc)
+                .type(type).optType(opt).build();
+    BEAT = pack(0, Accidental.NONE, ChordType.BEAT, OptType.NONE);
+  }
+}
@@ -0,0 +1,144 @@
+package jmus;
+
+import static js.base.Tools.*;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+import jmus.gen.Chord;
+import jmus.gen.MusicSection;
+import jmus.gen.SectionType;
+import jmus.gen.Song;
+
+/**
+ * A compact, immutable alternative to MusicSection, whose chords are stored as
+ * an array of PackedChord codes.
+ *
+ * A song's worth of chords occupies a single int[] rather than a Chord object
+ * (and possibly a second one for a slash chord) per chord
+ */
+public final class PackedSection {
+
+  public PackedSection(SectionType type, String textArg, int intArg, int[] codes) {
+    mType = type;
+    mTextArg = textArg;
+    mIntArg = intArg;
+    mCodes = codes;
+  }
+
+  public static PackedSection of(MusicSection section) {
+    List<Chord> chords = section.chords();
+    int[] codes = new int[chords.size()];
+    for (int i = 0; i < codes.length; i++)
+      codes[i] = PackedChord.fromChord(chords.get(i));
+    int intArg = (section.type() == SectionType.BEATS) ? section.intArg() : 0;
+    return new PackedSection(section.type(), section.textArg(), intArg, codes);
+  }
+
+  /**
+   * Pack each of a song's sections
+   */
+  public static List<PackedSection> pack(Song song) {
+    List<PackedSection> sections = arrayList();
+    for (MusicSection section : song.sections())
+      sections.add(of(section));
+    return sections;
+  }
+
+  public static Song unpack(List<PackedSection> sections) {
+    Song.Builder b = Song.newBuilder();
+    for (PackedSection section : sections)
+      b.sections().add(section.toMusicSection());
+    return b.build();
+  }
+
+  public SectionType type() {
+    return mType;
+  }
+
+  public String textArg() {
+    return mTextArg;
+  }
+
+  /**
+   * Get the integer argument; only meaningful for BEATS sections
+   */
+  public int intArg() {
+    return mIntArg;
+  }
+
+  public int chordCount() {
+    return mCodes.length;
+  }
+
+  /**
+   * Get the PackedChord code of a chord
+   */
+  public int code(int index) {
+    return mCodes[index];
+  }
+
+  /**
+   * Get the PackedChord codes of the chords. This is the section's own array,
+   * and must not be modified
+   */
+  public int[] codes() {
+    return mCodes;
+  }
+
+  /**
+   * Get a read-only view of the chords as Chord objects, which are constructed
+   * as they are accessed
+   */
+  public List<Chord> chords() {
+    return new AbstractList<Chord>() {
+      @Override
+      public Chord get(int index) {
+        return PackedChord.toChord(mCodes[index]);
+      }
+
+      @Override
+      public int size() {
+        return mCodes.length;
+      }
+    };
+  }
+
+  public MusicSection toMusicSection() {
+    MusicSection.Builder b = MusicSection.newBuilder().type(mType);
+    if (mTextArg != null)
+      b.textArg(mTextArg);
+    if (mType == SectionType.BEATS)
+      b.intArg(mIntArg);
+    b.chords().addAll(chords());
+    return b.build();
+  }
+
+  @Override
+  public boolean equals(Object object) {
+    if (this == object)
+      return true;
+    if (!(object instanceof PackedSection))
+      return false;
+    PackedSection other = (PackedSection) object;
+    return mType == other.mType && mIntArg == other.mIntArg && Objects.equals(mTextArg, other.mTextArg)
+        && Arrays.equals(mCodes, other.mCodes);
+  }
+
+  @Override
+  public int hashCode() {
+    return mType.hashCode() ^ Arrays.hashCode(mCodes);
+  }
+
+  @Override
+  public String toString() {
+    return toMusicSection().toString();
+  }
+
+  private final SectionType mType;
+  private final String mTextArg;
+  private final int mIntArg;
+  private final int[] mCodes;
+}
@@ -2,23 +2,38 @@ package jmus;
 
 import static js.base.Tools.*;
 
+import java.awt.BasicStroke;
 import java.awt.Color;
-import java.awt.FontMetrics;
 import java.awt.Graphics2D;
+import java.awt.Rectangle;
 import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Area;
 import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 import jmus.gen.Chord;
 import jmus.gen.ChordType;
 import jmus.gen.MusicKey;
-import jmus.gen.MusicSection;
-import jmus.gen.SectionType;
+import jmus.gen.RasterMode;
 import jmus.gen.Song;
 import jmus.gen.Style;
 import js.base.BaseObject;
-import js.data.IntArray;
 import js.file.Files;
 import js.geometry.IPoint;
 import js.geometry.IRect;
@@ -34,377 +49,688 @@ import static jmus.MusUtil.*;
 public final class PagePlotter extends BaseObject {
 
   public PagePlotter() {
-    BufferedImage img = mImage = ImgUtil.build(PAGE_SIZE.scaledBy(DOTS_PER_INCH),
-        ImgUtil.PREFERRED_IMAGE_TYPE_COLOR);
-    Graphics2D g = mGraphics = img.createGraphics();
-    g.setColor(Color.white);
-    g.fillRect(0, 0, img.getWidth(), img.getHeight());
-    g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
-    g.setTransform(Matrix.getScale(DOTS_PER_INCH).toAffineTransform());
-    PAINT_NORMAL.apply(g);
+    this(RasterMode.COLOR, null);
   }
 
-  public void setKey(MusicKey key) {
-    mKey = key;
+  /**
+   * Construct a plotter whose page has a particular pixel format
+   *
+   * @param style
+   *          style whose paints determine the palette, if the mode is INDEXED
+   */
+  public PagePlotter(RasterMode mode, Style style) {
+    this(mode, mode == RasterMode.INDEXED ? palette(style) : null, 0, PAGE_SIZE.y * DOTS_PER_INCH);
   }
 
-  private static final Color BAR_COLOR = new Color(128, 128, 128);
-
-  public Graphics2D graphics() {
-    return mGraphics;
+  /**
+   * Construct a plotter for a horizontal band of the page
+   *
+   * @param palette
+   *          palette, if the mode is INDEXED
+   * @param top
+   *          first row of the band, in device pixels
+   * @param height
+   *          height of the band, in device pixels
+   */
+  private PagePlotter(RasterMode mode, IndexColorModel palette, int top, int height) {
+    mRasterMode = mode;
+    mPoolKey = poolKey(mode, palette, height);
+    mImage = buildImage(mode, palette, height);
+    mGraphics = mImage.createGraphics();
+    reset(top);
   }
 
-  public void generateOutputFile(File outputFile) {
-    if (DEV) {
-      if (outputFile.getName().startsWith("quiz"))
-        outputFile = Files.getDesktopFile("quiz.png");
-      else
-        outputFile = Files.getDesktopFile("song.png");
-    }
-    ImgUtil.writeImage(Files.S, mImage, outputFile);
+  /**
+   * Get a plotter for a full page from the pool (constructing one if
+   * necessary), reset; it should be returned to the pool with checkIn() when
+   * it is no longer needed
+   *
+   * @param style
+   *          style whose paints determine the palette, if the mode is INDEXED
+   */
+  public static PagePlotter checkOut(RasterMode mode, Style style) {
+    return checkOut(mode, mode == RasterMode.INDEXED ? palette(style) : null, 0, PAGE_SIZE.y * DOTS_PER_INCH);
   }
 
-  public void plotSong(Song song, Style style) {
-    //pr("plotting song:", INDENT, song);
-    mSong = song;
-    PAINT_NORMAL.apply(graphics());
-
-    IPoint cursor = PAGE_CONTENT.location();
+  private static PagePlotter checkOut(RasterMode mode, IndexColorModel palette, int top, int height) {
+    PagePlotter p = PlotterPool.checkOut(poolKey(mode, palette, height));
+    if (p == null)
+      return new PagePlotter(mode, palette, top, height);
+    p.reset(top);
+    return p;
+  }
 
-    preparePlot();
+  /**
+   * Return the plotter to the pool; it must not be used afterward
+   */
+  public void checkIn() {
+    PlotterPool.checkIn(mPoolKey, this);
+  }
 
-    for (int sectionNumber = 0; sectionNumber < song.sections().size(); sectionNumber++) {
+  private static List<Object> poolKey(RasterMode mode, IndexColorModel palette, int height) {
+    // Palettes are cached, so are compared by identity
+    return Arrays.asList(mode, palette, PAGE_SIZE.x * DOTS_PER_INCH, height, DOTS_PER_INCH);
+  }
 
-      if (mStartOfRow) {
-        preparePlotRow(sectionNumber);
-        mStartOfRow = false;
-      }
+  /**
+   * Clear the page to white, and restore the plotter's graphics state and
+   * settings to those of a newly constructed plotter
+   */
+  public void reset() {
+    reset(mBandTopPixels);
+  }
 
-      MusicSection section = song.sections().get(sectionNumber);
+  /**
+   * Reset the plotter, and position its band
+   *
+   * @param top
+   *          first row of the band, in device pixels
+   */
+  private void reset(int top) {
+    mBandTopPixels = top;
+    mBandTop = top / DOTS_PER_INCH;
+    mBandBottom = (top + mImage.getHeight() + DOTS_PER_INCH - 1) / DOTS_PER_INCH;
+
+    Graphics2D g = mGraphics;
+    g.setTransform(new AffineTransform());
+    g.setClip(null);
+    g.setColor(Color.white);
+    g.fillRect(0, 0, mImage.getWidth(), mImage.getHeight());
+    g.setStroke(new BasicStroke());
+    if (mRasterMode == RasterMode.BILEVEL) {
+      // Antialiasing would only add dithering noise; and the label atlas sprites are antialiased
+      mUseLabelAtlas = false;
+      g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_OFF);
+    } else {
+      mUseLabelAtlas = true;
+      g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+    }
+    AffineTransform t = AffineTransform.getTranslateInstance(0, -top);
+    t.concatenate(Matrix.getScale(DOTS_PER_INCH).toAffineTransform());
+    g.setTransform(t);
+    PAINT_NORMAL.apply(g);
 
-      // size in pixels of section
-      IPoint sectionSize = null;
+    mKey = null;
+    mCompressionLevel = PngEncoder.DEFAULT_COMPRESSION_LEVEL;
+    mRows = arrayList();
+  }
 
-      switch (section.type()) {
+  /**
+   * Build an image, the width of the page, to plot into
+   */
+  private static BufferedImage buildImage(RasterMode mode, IndexColorModel palette, int height) {
+    int width = PAGE_SIZE.x * DOTS_PER_INCH;
+    switch (mode) {
+    default:
+      throw notSupported("raster mode:", mode);
+    case COLOR:
+      return ImgUtil.build(new IPoint(width, height), ImgUtil.PREFERRED_IMAGE_TYPE_COLOR);
+    case GRAY:
+      return new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+    case BILEVEL:
+      return new BufferedImage(width, height, BufferedImage.TYPE_BYTE_BINARY);
+    case INDEXED:
+      if (palette.getPixelSize() <= 4)
+        return new BufferedImage(width, height, BufferedImage.TYPE_BYTE_BINARY, palette);
+      return new BufferedImage(width, height, BufferedImage.TYPE_BYTE_INDEXED, palette);
+    }
+  }
 
-      default:
-        throw notSupported("unsupported section type:", section);
+  /**
+   * Render a page in horizontal bands, several at a time on the fork/join
+   * pool, and write it to a png. Only a few bands' images exist at any time,
+   * and each band draws only those rows of the display list that intersect it
+   */
+  public static void writeBands(DisplayList displayList, RasterMode mode, int compressionLevel,
+      File outputFile) {
+    Style style = displayList.style();
+    IndexColorModel palette = (mode == RasterMode.INDEXED) ? palette(style) : null;
+    // Load the (shared) chord font profiles before any bands are plotted concurrently
+    FontProfile.forPaint(style.paintChord());
+    FontProfile.forPaint(style.paintChordSmall());
+
+    IPoint size = PAGE_SIZE.scaledBy(DOTS_PER_INCH);
+    ForkJoinPool pool = ForkJoinPool.commonPool();
+    // Limit the number of bands rendered but not yet written
+    int window = pool.getParallelism() + 1;
+    Deque<ForkJoinTask<PagePlotter>> pending = new ArrayDeque<>();
+    try (OutputStream out = new BufferedOutputStream(new FileOutputStream(devOutputFile(outputFile)))) {
+      PngEncoder png = new PngEncoder(out, size.x, size.y, buildImage(mode, palette, 1).getColorModel(),
+          compressionLevel);
+      for (int top = 0; top < size.y; top += BAND_HEIGHT) {
+        int bandTop = top;
+        int bandHeight = Math.min(BAND_HEIGHT, size.y - top);
+        pending.add(pool.submit(() -> {
+          PagePlotter p = checkOut(mode, palette, bandTop, bandHeight);
+          p.render(displayList);
+          return p;
+        }));
+        if (pending.size() >= window)
+          writeBand(png, pending.remove().join());
+      }
+      while (!pending.isEmpty())
+        writeBand(png, pending.remove().join());
+      png.finish();
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
 
-      case BEATS:
-        mBeatsPerBar = section.intArg();
-        break;
+  private static void writeBand(PngEncoder png, PagePlotter band) {
+    png.writeRows(band.mImage, band.mImage.getHeight());
+    band.checkIn();
+  }
 
-      case LINE_BREAK:
-        mStartOfRow = true;
-        cursor = new IPoint(PAGE_CONTENT.x, cursor.y + mRowHeight);
-        mRowHeight = 0;
-        break;
+  // Height of each band, in device pixels
+  private static final int BAND_HEIGHT = 256;
+
+  /**
+   * Build a palette containing white, and the colors of the style's paints;
+   * each of those colors is accompanied by a few blends of it with white, for
+   * antialiasing
+   */
+  private static IndexColorModel palette(Style style) {
+    checkArgument(style != null, "indexed mode requires a style");
+    synchronized (sPaletteMap) {
+      IndexColorModel palette = sPaletteMap.get(style);
+      if (palette == null) {
+        palette = buildPalette(style);
+        sPaletteMap.put(style, palette);
+      }
+      return palette;
+    }
+  }
 
-      case PARAGRAPH_BREAK:
-        mStartOfRow = true;
-        cursor = new IPoint(PAGE_CONTENT.x, cursor.y + mRowHeight + 2 * style.barPadY());
-        mRowHeight = 0;
-        break;
+  private static final Map<Style, IndexColorModel> sPaletteMap = hashMap();
+
+  private static IndexColorModel buildPalette(Style style) {
+    Graphics2D g = SongLayout.scratchGraphics();
+    Set<Integer> colors = new LinkedHashSet<>();
+    colors.add(Color.white.getRGB());
+    List<Color> baseColors = arrayList();
+    baseColors.add(Color.black);
+    baseColors.add(BAR_COLOR);
+    for (Paint paint : Arrays.asList(style.paintChord(), style.paintChordSmall(), style.paintBarFrame(),
+        style.paintTitle(), style.paintSubtitle(), style.paintText(), style.paintSmallText())) {
+      paint.apply(g);
+      baseColors.add(g.getColor());
+    }
+    g.dispose();
+    for (Color c : baseColors)
+      for (int i = 1; i <= PALETTE_BLENDS; i++) {
+        float t = i / (float) PALETTE_BLENDS;
+        colors.add(new Color(blend(c.getRed(), t), blend(c.getGreen(), t), blend(c.getBlue(), t)).getRGB());
+      }
 
-      case KEY:
-        mKey = musicKey(section.textArg());
-        break;
+    int size = colors.size();
+    checkState(size <= 256, "too many colors for a palette:", size);
+    int bits = 1;
+    while ((1 << bits) < size)
+      bits *= 2;
+    byte[] r = new byte[size];
+    byte[] gr = new byte[size];
+    byte[] b = new byte[size];
+    int i = 0;
+    for (int rgb : colors) {
+      r[i] = (byte) (rgb >> 16);
+      gr[i] = (byte) (rgb >> 8);
+      b[i] = (byte) rgb;
+      i++;
+    }
+    return new IndexColorModel(bits, size, r, gr, b);
+  }
 
-      case TITLE:
-      case SUBTITLE:
-      case TEXT:
-      case SMALL_TEXT: {
-        int px = cursor.x;
-        int py = cursor.y;
-        int boxHeight = 0;
-        int xPadding = smallPadding(style);
-        px += xPadding;
-        if (mRowContainsChords)
-          boxHeight = style.chordHeight();
-        IPoint stringSize = renderString(section.type(), section.textArg(), style, boxHeight,
-            mVisibleSectionsInRow == 1
-                && (section.type() == SectionType.TITLE || section.type() == SectionType.SUBTITLE),
-            new IPoint(px, py));
-        px += xPadding;
-        sectionSize = new IPoint(px - cursor.x + stringSize.x, stringSize.y);
-      }
-        break;
+  /**
+   * Blend a color component with white; t is the weight of the component
+   */
+  private static int blend(int component, float t) {
+    return Math.round(component * t + 255 * (1 - t));
+  }
 
-      case CHORD_SEQUENCE: {
-        List<List<Chord>> barLists = arrayList();
-        extractChordsForBars(section.chords(), mBeatsPerBar, barLists);
-        int barHeight = style.chordHeight() + 1 * style.barPadY();
+  // Number of blends (including the color itself) of each palette color with white
+  private static final int PALETTE_BLENDS = 4;
 
-        IPoint lineLoc = cursor;
-        IPoint barLoc = lineLoc;
+  public void setKey(MusicKey key) {
+    mKey = key;
+  }
 
-        for (List<Chord> barList : barLists) {
-          int barWidth = (style.meanChordWidthPixels() + style.chordPadX()) * barList.size()
-              + style.chordPadX();
-          style.paintBarFrame().apply(graphics());
-          rect(graphics(), barLoc.x, barLoc.y, barWidth, barHeight);
+  static final Color BAR_COLOR = new Color(128, 128, 128);
 
-          int cx = barLoc.x + style.barPadX();
-          int cy = barLoc.y + style.barPadY();
+  /**
+   * Specify whether chord labels are drawn from pre-rasterized LabelAtlas
+   * sprites (the default), or a character at a time
+   */
+  public void setUseLabelAtlas(boolean flag) {
+    mUseLabelAtlas = flag;
+  }
 
-          for (Chord chord : barList) {
-            IPoint loc = new IPoint(cx, cy);
-            plotChord(chord, style, loc);
-            cx += style.meanChordWidthPixels() + style.chordPadX();
-          }
+  public Graphics2D graphics() {
+    return mGraphics;
+  }
 
-          barLoc = barLoc.sumWith(barWidth, 0);
-        }
+  BufferedImage image() {
+    return mImage;
+  }
 
-        sectionSize = new IPoint(barLoc.x - cursor.x, barHeight);
-        lineLoc = lineLoc.withX(lineLoc.x + sectionSize.x);
-      }
-        break;
-      }
+  /**
+   * Set the deflate level used by generateOutputFile(), from 0 (fastest) to 9
+   * (smallest)
+   */
+  public void setCompressionLevel(int level) {
+    mCompressionLevel = level;
+  }
 
-      if (sectionSize != null) {
-        mRowHeight = Math.max(mRowHeight, sectionSize.y);
-        cursor = cursor.sumWith(sectionSize.x, 0);
-      }
+  public void generateOutputFile(File outputFile) {
+    outputFile = devOutputFile(outputFile);
+    try (OutputStream out = new BufferedOutputStream(new FileOutputStream(outputFile))) {
+      PngEncoder png = new PngEncoder(out, mImage.getWidth(), mImage.getHeight(), mImage.getColorModel(),
+          mCompressionLevel);
+      png.writeRows(mImage, mImage.getHeight());
+      png.finish();
+    } catch (IOException e) {
+      throw new RuntimeException(e);
     }
   }
 
-  private void preparePlotRow(int sectionNumber) {
-    mRowContainsChords = false;
-    mVisibleSectionsInRow = 0;
-    for (int j = sectionNumber; j < mSong.sections().size(); j++) {
-      MusicSection s = mSong.sections().get(j);
-      if (s.type() == SectionType.LINE_BREAK || s.type() == SectionType.PARAGRAPH_BREAK)
-        break;
-      if (visibleSection(s.type()))
-        mVisibleSectionsInRow++;
-      if (s.type() == SectionType.CHORD_SEQUENCE)
-        mRowContainsChords = true;
+  private static File devOutputFile(File outputFile) {
+    if (DEV) {
+      if (outputFile.getName().startsWith("quiz"))
+        outputFile = Files.getDesktopFile("quiz.png");
+      else
+        outputFile = Files.getDesktopFile("song.png");
     }
+    return outputFile;
   }
 
-  public void plotChord(Chord chord, Style style, IPoint loc) {
-    Paint chordPaint = style.paintChord();
-    int yAdjust = 0;
-
-    if (chord.slashChord() != null) {
-      chordPaint = style.paintChordSmall();
-      yAdjust = style.slashChordAdjustY();
-    }
+  public void plotSong(Song song, Style style) {
+    //pr("plotting song:", INDENT, song);
+    plotSong(PackedSection.pack(song), style);
+  }
 
-    mCharAdjustmentMap = CharAdjustmentMap.forFont(chordPaint.font());
+  /**
+   * Plot a song held as a list of packed sections
+   */
+  public void plotSong(List<PackedSection> sections, Style style) {
+    render(new SongLayout(style).layout(sections, mKey));
+  }
 
-    chordPaint.apply(graphics());
-    if (chord.type() == ChordType.BEAT)
-      graphics().setColor(BAR_COLOR);
+  /**
+   * Plot a sequence of rows (typically those of one page of a paginated song),
+   * starting at the top of the page
+   */
+  public void plotRows(List<PlotRow> rows, Style style) {
+    render(new SongLayout(style).layoutRows(rows));
+  }
 
-    mTextEntries.clear();
+  /**
+   * Lay out a song without drawing anything, to determine its rows
+   */
+  public List<PlotRow> measureSong(Song song, Style style) {
+    mRows = new SongLayout(style).layout(PackedSection.pack(song), mKey).rows();
+    return mRows;
+  }
 
-    // For (non-slash) chords that are especially wide, shift the chord to the left
-    int xAdjust = 0;
-    String mainText = renderChord(chord, mKey, null, null).toString();
-    tx().text = mainText;
-    if (chord.slashChord() != null) {
-      tx().text = "~dash";
-      tx().text = renderChord(chord.slashChord(), mKey, null, null).toString();
-    } else {
-      if (mainText.length() > 2)
-        xAdjust = (int) (-style.meanChordWidthPixels() * .18f);
+  /**
+   * Draw the operations of a display list
+   */
+  public void render(DisplayList displayList) {
+    Style style = displayList.style();
+    PAINT_NORMAL.apply(graphics());
+    List<PlotRow> rows = displayList.rows();
+    mRowCacheHits = 0;
+    mRowCacheMisses = 0;
+    // Any operations preceding the first row don't belong to a row, so are always drawn
+    renderOperations(displayList, 0, displayList.rowStart(0));
+    for (int r = 0; r < rows.size(); r++) {
+      PlotRow row = rows.get(r);
+      if (!withinBand(row, style))
+        continue;
+      // Cached rows are composited with transparency, which only color pages support
+      if (RowCache.enabled() && mRasterMode == RasterMode.COLOR)
+        renderCachedRow(displayList, r);
+      else
+        renderOperations(displayList, displayList.rowStart(r), displayList.rowStart(r + 1));
     }
-    renderTextEntries(style, loc.sumWith(xAdjust, yAdjust));
-    mTextEntries.clear();
-  }
-
-  private void extractChordsForBars(List<Chord> chordList, int beatsPerBar, List<List<Chord>> barList) {
-    List<Chord> currentBar = arrayList();
-    for (Chord chord : chordList) {
-      // If this chord is the start of a new bar, start a new bar list
-      if (chord.beatNumber() <= 0) {
-        padWithBeats(currentBar, beatsPerBar);
-        if (!currentBar.isEmpty()) {
-          barList.add(currentBar);
-          currentBar = arrayList();
-        }
+    mRows = rows;
+    log("row cache hits:", mRowCacheHits, "misses:", mRowCacheMisses);
+  }
+
+  /**
+   * Get the number of rows drawn from the RowCache by the most recent render
+   */
+  public int rowCacheHits() {
+    return mRowCacheHits;
+  }
+
+  /**
+   * Get the number of rows rendered (and added to the RowCache) by the most
+   * recent render
+   */
+  public int rowCacheMisses() {
+    return mRowCacheMisses;
+  }
+
+  /**
+   * Draw a row by copying its image from the RowCache, rendering the image
+   * first if it isn't there. A row's operations depend only upon its sections
+   * and the state it was laid out with, and are positioned relative to its
+   * top, so rows that repeat share an image
+   */
+  private void renderCachedRow(DisplayList displayList, int rowIndex) {
+    PlotRow row = displayList.rows().get(rowIndex);
+    Style style = displayList.style();
+    int pad = rowPadding(style);
+    IRect bounds = row.bounds(style);
+    int top = bounds.y - pad;
+    List<Object> key = Arrays.asList(row.sections, row.key, row.beatsPerBar, style, mUseLabelAtlas);
+
+    BufferedImage image = RowCache.get(key);
+    if (image != null)
+      mRowCacheHits++;
+    else {
+      mRowCacheMisses++;
+      image = new BufferedImage(mImage.getWidth(), (bounds.height + 2 * pad) * DOTS_PER_INCH,
+          BufferedImage.TYPE_INT_ARGB_PRE);
+      Graphics2D g = image.createGraphics();
+      g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING,
+          mGraphics.getRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING));
+      AffineTransform t = AffineTransform.getTranslateInstance(0, -top * DOTS_PER_INCH);
+      t.concatenate(Matrix.getScale(DOTS_PER_INCH).toAffineTransform());
+      g.setTransform(t);
+      PAINT_NORMAL.apply(g);
+      Graphics2D pageGraphics = mGraphics;
+      mGraphics = g;
+      try {
+        renderOperations(displayList, displayList.rowStart(rowIndex), displayList.rowStart(rowIndex + 1));
+      } finally {
+        mGraphics = pageGraphics;
+        g.dispose();
       }
-      currentBar.add(chord);
-    }
-    padWithBeats(currentBar, beatsPerBar);
-    if (!currentBar.isEmpty()) {
-      barList.add(currentBar);
+      RowCache.put(key, image);
     }
+
+    // Copy the image in device coordinates; the page's clip (if any) still applies
+    Graphics2D g = mGraphics;
+    AffineTransform pageTransform = g.getTransform();
+    g.setTransform(new AffineTransform());
+    g.drawImage(image, 0, top * DOTS_PER_INCH - mBandTopPixels, null);
+    g.setTransform(pageTransform);
   }
 
-  private void padWithBeats(List<Chord> bar, int beatsPerBar) {
-    if (beatsPerBar == 0 || bar.isEmpty())
-      return;
-    while (bar.size() < beatsPerBar)
-      bar.add(Chord.newBuilder().type(ChordType.BEAT));
+  /**
+   * Determine if a row may draw within the plotter's band of the page (if it
+   * has one); the row's bounds are padded, in case glyphs extend past them
+   */
+  private boolean withinBand(PlotRow row, Style style) {
+    IRect bounds = row.paintedBounds(style);
+    return bounds.y < mBandBottom && bounds.endY() > mBandTop;
   }
 
-  private TextEntry tx() {
-    TextEntry b = new TextEntry();
-    mTextEntries.add(b);
-    return b;
+  /**
+   * Get the distance that a row's glyphs may extend past its bounds
+   */
+  static int rowPadding(Style style) {
+    return style.chordHeight();
   }
 
-  private IPoint renderString(SectionType type, String text, Style style, int boxHeight, boolean center,
-      IPoint loc) {
+  private void renderOperations(DisplayList displayList, int start, int end) {
     Graphics2D g = graphics();
-    Paint pt;
-    switch (type) {
-    default:
-      throw notSupported("text type", type);
-    case TITLE:
-      pt = style.paintTitle();
-      break;
-    case SUBTITLE:
-      pt = style.paintSubtitle();
-      break;
-    case TEXT:
-      pt = style.paintText();
-      break;
-    case SMALL_TEXT:
-      pt = style.paintSmallText();
-      break;
+    Style style = displayList.style();
+    for (int i = start; i < end; i++) {
+      int x = displayList.x(i);
+      int y = displayList.y(i);
+      switch (displayList.op(i)) {
+      default:
+        throw notSupported("display list operation:", displayList.op(i));
+      case DisplayList.OP_BAR:
+        style.paintBarFrame().apply(g);
+        rect(g, x, y, displayList.arg0(i), displayList.arg1(i));
+        break;
+      case DisplayList.OP_CHORD:
+        mKey = displayList.key(i);
+        plotChord(displayList.arg0(i), style, x, y);
+        break;
+      case DisplayList.OP_TEXT:
+        SongLayout.textPaint(style, displayList.textType(i)).apply(g);
+        g.drawString(displayList.text(i), x, y);
+        break;
+      case DisplayList.OP_FILL:
+        displayList.paint(i).apply(g);
+        fill(g, x, y, displayList.arg0(i), displayList.arg1(i));
+        break;
+      case DisplayList.OP_LINE:
+        displayList.paint(i).apply(g);
+        line(g, x, y, displayList.arg0(i), displayList.arg1(i));
+        break;
+      case DisplayList.OP_STRING:
+        displayList.paint(i).apply(g);
+        g.drawString(displayList.text(i), x, y);
+        break;
+      }
     }
+  }
 
-    pt.apply(graphics());
-    FontMetrics f = g.getFontMetrics();
-
-    int width = f.stringWidth(text);
-    int x = loc.x;
-    int y;
-    if (boxHeight != 0)
-      y = loc.y + boxHeight;
-    else
-      y = loc.y + f.getAscent();
-
-    if (center)
-      x = PAGE_CONTENT.midX() - width / 2;
+  /**
+   * Lay out a song and divide its rows into pages, breaking between rows. Rows
+   * at the start of the song that hold its title (and any subtitles) are
+   * repeated at the top of each continuation page
+   */
+  public List<List<PlotRow>> paginate(Song song, Style style) {
+    return new SongLayout(style).paginate(PackedSection.pack(song), mKey);
+  }
 
-    g.drawString(text, x, y);
-    return new IPoint(width, f.getHeight());
+  /**
+   * Plot a song, but only redraw the parts of the page within some rectangles
+   * (which are first cleared)
+   */
+  public void plotSong(Song song, Style style, List<IRect> clipRects) {
+    Graphics2D g = graphics();
+    Area clip = new Area();
+    g.setColor(Color.white);
+    for (IRect r : clipRects) {
+      g.fillRect(r.x, r.y, r.width, r.height);
+      clip.add(new Area(new Rectangle(r.x, r.y, r.width, r.height)));
+    }
+    g.setClip(clip);
+    try {
+      plotSong(song, style);
+    } finally {
+      g.setClip(null);
+    }
   }
 
-  private void renderTextEntries(Style style, IPoint topLeft) {
+  /**
+   * Get the rows of the most recently plotted (or measured) song
+   */
+  public List<PlotRow> rows() {
+    return mRows;
+  }
 
-    FontMetrics f = mGraphics.getFontMetrics();
+  /**
+   * Get the page's pixels (in ARGB format) within a rectangle, expressed in
+   * page coordinates
+   */
+  public int[] pixels(IRect pageRect) {
+    IRect r = devicePixelRect(pageRect);
+    if (r.width <= 0 || r.height <= 0)
+      return new int[0];
+    return mImage.getRGB(r.x, r.y, r.width, r.height, null, 0, r.width);
+  }
 
-    List<int[]> charPositionLists = arrayList();
+  private IRect devicePixelRect(IRect pageRect) {
+    int x0 = Math.max(0, pageRect.x * DOTS_PER_INCH);
+    int y0 = Math.max(0, pageRect.y * DOTS_PER_INCH);
+    int x1 = Math.min(mImage.getWidth(), pageRect.endX() * DOTS_PER_INCH);
+    int y1 = Math.min(mImage.getHeight(), pageRect.endY() * DOTS_PER_INCH);
+    return new IRect(x0, y0, x1 - x0, y1 - y0);
+  }
 
-    {
-      int y = 0;
-      for (TextEntry tx : mTextEntries) {
+  /**
+   * Description of a row of a plotted song: the sections it contains, the
+   * state it was plotted with, and its vertical extent
+   */
+  public static final class PlotRow {
+
+    PlotRow(List<PackedSection> sections, MusicKey key, int beatsPerBar, int y, int height) {
+      this.sections = sections;
+      this.key = key;
+      this.beatsPerBar = beatsPerBar;
+      this.y = y;
+      this.height = height;
+    }
 
-        int[] charPositionList = null;
+    /**
+     * Get the region of the page that the row is plotted within
+     */
+    public IRect bounds(Style style) {
+      int pad = style.barPadY();
+      return new IRect(0, y - pad, PAGE_SIZE.x, height + 2 * pad);
+    }
 
-        int rowHeight = f.getHeight();
-        tx.yOffset = y;
+    /**
+     * Get the region of the page that the row's glyphs may be drawn within;
+     * its bounds, padded in case glyphs (e.g. of slash chords) extend past them
+     */
+    public IRect paintedBounds(Style style) {
+      IRect b = bounds(style);
+      int pad = rowPadding(style);
+      return new IRect(b.x, b.y - pad, b.width, b.height + 2 * pad);
+    }
 
-        if (tx.text.startsWith("~")) {
-          rowHeight = style.dashHeight();
-        } else {
-          charPositionList = determineCharPositions(style, f, tx.text);
-        }
-        y += rowHeight;
-        charPositionLists.add(charPositionList);
-      }
+    @Override
+    public boolean equals(Object object) {
+      if (this == object)
+        return true;
+      if (!(object instanceof PlotRow))
+        return false;
+      PlotRow other = (PlotRow) object;
+      return y == other.y && height == other.height && beatsPerBar == other.beatsPerBar
+          && Objects.equals(key, other.key) && sections.equals(other.sections);
     }
 
-    int py = topLeft.y;
-    int x0 = topLeft.x;
-
-    int row = INIT_INDEX;
-    for (TextEntry tx : mTextEntries) {
-      row++;
-      if (tx.text.startsWith("~")) {
-        switch (tx.text.substring(1)) {
-        default:
-          throw notSupported("unknown text:", tx);
-        case "dash": {
-          int y0 = py + style.dashOffset();
-          mGraphics.drawString("_", x0, y0);
-        }
-          break;
-        }
-      } else {
-        int[] charPositionList = charPositionLists.get(row);
-        int y = py + tx.yOffset;
-        String str = tx.text;
-
-        int ry = y + f.getAscent();
-        for (int i = 0; i < str.length(); i++) {
-          char c = str.charAt(i);
-          int charPosition = charPositionList[i];
-          int x = x0 + charPosition;
-          mGraphics.drawString(Character.toString(c), x, ry);
-        }
-      }
+    @Override
+    public int hashCode() {
+      return sections.hashCode() ^ y;
     }
+
+    public final List<PackedSection> sections;
+    public final MusicKey key;
+    public final int beatsPerBar;
+    public final int y;
+    public final int height;
   }
 
-  private int[] determineCharPositions(Style style, FontMetrics metrics, String text) {
-    IntArray.Builder charXPositions = IntArray.newBuilder();
+  public void plotChord(Chord chord, Style style, IPoint loc) {
+    plotChord(PackedChord.fromChord(chord), style, loc);
+  }
 
-    int x = 0;
+  /**
+   * Plot a chord given its PackedChord code
+   */
+  public void plotChord(int chord, Style style, IPoint loc) {
+    plotChord(chord, style, loc.x, loc.y);
+  }
 
-    for (int i = 0; i < text.length(); i++) {
-      char c = text.charAt(i);
-      int cw = metrics.charWidth(c);
+  private void plotChord(int chord, Style style, int x, int y) {
+    if (style != mChordStyle)
+      resolveChordFonts(style);
+    Paint chordPaint = style.paintChord();
+    FontProfile profile = mChordProfile;
+    int atlasIndex = 0;
+    int yAdjust = 0;
 
-      IRect rect = mCharAdjustmentMap.getRect(c);
+    boolean slash = PackedChord.hasSlash(chord);
+    if (slash) {
+      chordPaint = style.paintChordSmall();
+      profile = mSmallChordProfile;
+      atlasIndex = 2;
+      yAdjust = style.slashChordAdjustY();
+    }
 
-      if (rect != null) {
-        // We need to plot the character n pixels further to the left,
-        // and advance the cursor so the next character is drawn past the bounding rectangle
-        //
-        int leftPadding = 1;
-        int rightPadding = 1;
+    Graphics2D g = graphics();
+    chordPaint.apply(g);
+    if (PackedChord.type(chord) == ChordType.BEAT) {
+      g.setColor(BAR_COLOR);
+      atlasIndex++;
+    }
 
-        int xShift = -rect.x + leftPadding;
-        cw = rect.width - xShift + rightPadding;
-        x += xShift;
-      }
-      charXPositions.add(x);
-      x += cw;
+    if (mLabels == null || mLabelsKey != mKey) {
+      mLabels = ChordLabels.forKey(mKey);
+      mLabelsKey = mKey;
     }
-    charXPositions.add(x);
-    return charXPositions.array();
-  }
+    String mainText = mLabels.label(chord & PackedChord.SCALAR_MASK);
 
-  private static int smallPadding(Style style) {
-    return style.barPadX() / 3;
+    // For (non-slash) chords that are especially wide, shift the chord to the left
+    int x0 = x + mLabels.xOffset(chord, style);
+    int py = y + yAdjust;
+
+    plotLabel(profile, atlasIndex, mainText, x0, py);
+    if (slash) {
+      g.drawString("_", x0, py + style.dashOffset());
+      plotLabel(profile, atlasIndex, mLabels.label(PackedChord.slash(chord)), x0,
+          py + profile.height() + style.dashHeight());
+    }
   }
 
-  private static class TextEntry {
-    String text;
-    int yOffset;
+  /**
+   * Look up the profiles of a style's chord fonts; their label atlases are
+   * looked up as they are needed
+   */
+  private void resolveChordFonts(Style style) {
+    mChordStyle = style;
+    mChordProfile = FontProfile.forPaint(style.paintChord());
+    mSmallChordProfile = FontProfile.forPaint(style.paintChordSmall());
+    Arrays.fill(mChordAtlases, null);
   }
 
-  private void preparePlot() {
-    mRowHeight = 0;
-    mBeatsPerBar = 0;
-    mStartOfRow = true;
-    mRowContainsChords = false;
-    mVisibleSectionsInRow = 0;
+  /**
+   * Plot a chord label, in the current font and color, with its top left
+   * corner at a location
+   */
+  private void plotLabel(FontProfile profile, int atlasIndex, String label, int x, int y) {
+    Graphics2D g = mGraphics;
+    if (mUseLabelAtlas) {
+      LabelAtlas atlas = mChordAtlases[atlasIndex];
+      if (atlas == null) {
+        atlas = LabelAtlas.get(g.getFont(), g.getColor());
+        mChordAtlases[atlasIndex] = atlas;
+      }
+      atlas.draw(g, label, x, y);
+      return;
+    }
+    int[] charPositions = mCharPositions = profile.charPositions(label, mCharPositions);
+    char[] chars = mChars;
+    int ry = y + profile.ascent();
+    for (int i = 0; i < label.length(); i++) {
+      chars[0] = label.charAt(i);
+      g.drawChars(chars, 0, 1, x + charPositions[i], ry);
+    }
   }
 
+  private final RasterMode mRasterMode;
+  private final List<Object> mPoolKey;
+  private int mBandTopPixels;
+  // Vertical extent of the plotter's band of the page, in page coordinates
+  private int mBandTop;
+  private int mBandBottom;
   private MusicKey mKey;
+  private boolean mUseLabelAtlas = true;
+  private int mCompressionLevel = PngEncoder.DEFAULT_COMPRESSION_LEVEL;
   private BufferedImage mImage;
   private Graphics2D mGraphics;
-  private List<TextEntry> mTextEntries = arrayList();
-
-  // ------------------------------------------------------------------
-  // plotSong() usage
-  // ------------------------------------------------------------------
-
-  private Song mSong;
-  private int mRowHeight;
-  private int mBeatsPerBar;
-  // True if we're about to process song sections on a new row
-  private boolean mStartOfRow;
-  // True if the current row contains some chords
-  private boolean mRowContainsChords;
-  private int mVisibleSectionsInRow;
-  private CharAdjustmentMap mCharAdjustmentMap;
+
+  // Chord label state, resolved once per style (or key) rather than per chord
+  private Style mChordStyle;
+  private FontProfile mChordProfile;
+  private FontProfile mSmallChordProfile;
+  // Atlases for the (regular, regular beat, small, small beat) chord fonts and colors
+  private final LabelAtlas[] mChordAtlases = new LabelAtlas[4];
+  private MusicKey mLabelsKey;
+  private ChordLabels mLabels;
+  private int[] mCharPositions = new int[16];
+  private final char[] mChars = new char[1];
+
+  private List<PlotRow> mRows = arrayList();
+  private int mRowCacheHits;
+  private int mRowCacheMisses;
 }
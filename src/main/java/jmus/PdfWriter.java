@@ -0,0 +1,598 @@
+package jmus;
+
+import static jmus.MusUtil.*;
+import static js.base.Tools.*;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.Shape;
+import java.awt.Stroke;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Rectangle2D;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.zip.DeflaterOutputStream;
+
+import jmus.gen.ChordType;
+import jmus.gen.MusicKey;
+import jmus.gen.Song;
+import jmus.gen.Style;
+import js.data.IntArray;
+import js.graphics.Paint;
+
+/**
+ * Writes a sequence of pages, each described by a DisplayList, as a single PDF
+ * document.
+ *
+ * Each page is written as soon as it is added, so memory use doesn't grow with
+ * the number of pages. Fonts are embedded as Type3 fonts (built from the glyph
+ * outlines of the AWT fonts, since those needn't be backed by font files);
+ * each is written once, when the document is closed, and shared by every page.
+ * Text, including chord labels, is drawn as text.
+ *
+ * Not thread safe
+ */
+public final class PdfWriter implements Closeable {
+
+  public PdfWriter(OutputStream outputStream) {
+    mOutput = new BufferedOutputStream(outputStream);
+    write("%PDF-1.4\n%âãÏÓ\n");
+    // Reserve object numbers for the catalog and the page tree, which are written last
+    reserveObject();
+    reserveObject();
+  }
+
+  /**
+   * Write a single page to a PDF file
+   */
+  public static void write(DisplayList displayList, File file) {
+    try (PdfWriter w = new PdfWriter(new FileOutputStream(file))) {
+      w.addPage(displayList);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Write songs to a PDF file, each starting on a new page. Songs are laid out
+   * concurrently, a few at a time, and their pages are written in order
+   *
+   * @param key
+   *          key to plot the songs in (may be null)
+   */
+  public static void writeSongs(Iterable<Song> songs, MusicKey key, Style style, File file) {
+    ForkJoinPool pool = ForkJoinPool.commonPool();
+    // Limit the number of songs laid out but not yet written
+    int window = 2 * pool.getParallelism();
+    Deque<ForkJoinTask<List<DisplayList>>> pending = new ArrayDeque<>();
+    try (PdfWriter w = new PdfWriter(new FileOutputStream(file))) {
+      for (Song song : songs) {
+        pending.add(pool.submit(() -> new SongLayout(style).layoutPages(PackedSection.pack(song), key)));
+        if (pending.size() >= window)
+          w.addPages(pending.remove().join());
+      }
+      while (!pending.isEmpty())
+        w.addPages(pending.remove().join());
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  public void addPages(List<DisplayList> pages) {
+    for (DisplayList page : pages)
+      addPage(page);
+  }
+
+  /**
+   * Write a page
+   */
+  public void addPage(DisplayList displayList) {
+    checkState(!mClosed, "writer is closed");
+    mStyle = displayList.style();
+    mPageFonts.clear();
+    mContent.setLength(0);
+    mFillColor = null;
+    mStrokeColor = null;
+    mLineWidth = -1;
+
+    // Flip the y axis, so the display list's page coordinates can be used directly
+    float scale = POINTS_PER_INCH / (float) PIXELS_PER_INCH;
+    c(num(scale)).c(" 0 0 ").c(num(-scale)).c(" 0 ").c(num(PAGE_SIZE.y * scale)).c(" cm\n");
+    writeOperations(displayList);
+
+    int contentObject = newObject();
+    byte[] content = deflate(mContent);
+    write("<< /Length " + content.length + " /Filter /FlateDecode >>\nstream\n");
+    write(content);
+    write("\nendstream\nendobj\n");
+
+    int pageObject = newObject();
+    StringBuilder sb = new StringBuilder();
+    sb.append("<< /Type /Page /Parent ").append(PAGE_TREE_OBJECT).append(" 0 R /MediaBox [0 0 ")
+        .append(num(PAGE_SIZE.x * scale)).append(' ').append(num(PAGE_SIZE.y * scale))
+        .append("] /Resources << /Font <<");
+    for (PdfFont f : mPageFonts)
+      sb.append(" /F").append(f.object).append(' ').append(f.object).append(" 0 R");
+    sb.append(" >> >> /Contents ").append(contentObject).append(" 0 R >>\nendobj\n");
+    write(sb.toString());
+    mPageObjects.add(pageObject);
+  }
+
+  /**
+   * Write the fonts, page tree and cross-reference table, and close the output
+   * stream
+   */
+  @Override
+  public void close() throws IOException {
+    if (mClosed)
+      return;
+    mClosed = true;
+    for (PdfFont font : mFonts)
+      writeFont(font);
+
+    startObject(PAGE_TREE_OBJECT);
+    StringBuilder sb = new StringBuilder("<< /Type /Pages /Kids [");
+    int[] pages = mPageObjects.array();
+    for (int page : pages)
+      sb.append(' ').append(page).append(" 0 R");
+    sb.append(" ] /Count ").append(pages.length).append(" >>\nendobj\n");
+    write(sb.toString());
+
+    startObject(CATALOG_OBJECT);
+    write("<< /Type /Catalog /Pages " + PAGE_TREE_OBJECT + " 0 R >>\nendobj\n");
+
+    long xrefOffset = mPosition;
+    write("xref\n0 " + (mObjectCount + 1) + "\n0000000000 65535 f \n");
+    for (int i = 1; i <= mObjectCount; i++)
+      write(String.format("%010d 00000 n \n", mOffsets[i]));
+    write("trailer\n<< /Size " + (mObjectCount + 1) + " /Root " + CATALOG_OBJECT + " 0 R >>\nstartxref\n"
+        + xrefOffset + "\n%%EOF\n");
+    mOutput.close();
+  }
+
+  // ------------------------------------------------------------------
+  // Page content
+  // ------------------------------------------------------------------
+
+  private void writeOperations(DisplayList d) {
+    for (int i = 0; i < d.size(); i++) {
+      int x = d.x(i);
+      int y = d.y(i);
+      switch (d.op(i)) {
+      default:
+        throw notSupported("display list operation:", d.op(i));
+      case DisplayList.OP_BAR:
+        setStroke(mStyle.paintBarFrame());
+        c(x).c(' ').c(y).c(' ').c(d.arg0(i)).c(' ').c(d.arg1(i)).c(" re S\n");
+        break;
+      case DisplayList.OP_CHORD:
+        writeChord(d.arg0(i), ChordLabels.forKey(d.key(i)), x, y);
+        break;
+      case DisplayList.OP_TEXT:
+        SongLayout.textPaint(mStyle, d.textType(i)).apply(mGraphics);
+        writeText(d.text(i), null, x, y);
+        break;
+      case DisplayList.OP_STRING:
+        d.paint(i).apply(mGraphics);
+        writeText(d.text(i), null, x, y);
+        break;
+      case DisplayList.OP_FILL:
+        d.paint(i).apply(mGraphics);
+        setFillColor(mGraphics.getColor());
+        c(x).c(' ').c(y).c(' ').c(d.arg0(i)).c(' ').c(d.arg1(i)).c(" re f\n");
+        break;
+      case DisplayList.OP_LINE:
+        setStroke(d.paint(i));
+        c(x).c(' ').c(y).c(" m ").c(d.arg0(i)).c(' ').c(d.arg1(i)).c(" l S\n");
+        break;
+      }
+    }
+  }
+
+  /**
+   * Write a chord, positioned as PagePlotter.plotChord() would draw it
+   */
+  private void writeChord(int chord, ChordLabels labels, int x, int y) {
+    Style style = mStyle;
+    Paint chordPaint = style.paintChord();
+    int yAdjust = 0;
+    boolean slash = PackedChord.hasSlash(chord);
+    if (slash) {
+      chordPaint = style.paintChordSmall();
+      yAdjust = style.slashChordAdjustY();
+    }
+    chordPaint.apply(mGraphics);
+    if (PackedChord.type(chord) == ChordType.BEAT)
+      mGraphics.setColor(PagePlotter.BAR_COLOR);
+    FontProfile f = FontProfile.forFont(mGraphics.getFont());
+
+    String mainText = labels.label(chord & PackedChord.SCALAR_MASK);
+    int x0 = x + labels.xOffset(chord, style);
+    int py = y + yAdjust;
+
+    writeText(mainText, f.charPositions(mainText, null), x0, py + f.ascent());
+    if (slash) {
+      writeText("_", null, x0, py + style.dashOffset());
+      String slashText = labels.label(PackedChord.slash(chord));
+      writeText(slashText, f.charPositions(slashText, null), x0,
+          py + f.height() + style.dashHeight() + f.ascent());
+    }
+  }
+
+  /**
+   * Write text, in the scratch graphics' font and color
+   *
+   * @param charPositions
+   *          if not null, the x offset of each character; otherwise, the
+   *          characters are spaced by their advance widths
+   * @param y
+   *          baseline
+   */
+  private void writeText(String text, int[] charPositions, int x, int y) {
+    Font font = mGraphics.getFont();
+    setFillColor(mGraphics.getColor());
+    String size = num(font.getSize2D());
+    c("BT\n");
+    PdfFont current = null;
+    for (int i = 0; i < text.length(); i++) {
+      char ch = text.charAt(i);
+      PdfFont pf = pdfFont(font, ch);
+      if (pf != current || charPositions != null) {
+        if (current != null)
+          c("> Tj\n");
+        if (pf != current)
+          c("/F").c(pf.object).c(' ').c(size).c(" Tf\n");
+        int cx = x + (charPositions != null ? charPositions[i] : 0);
+        // Characters after the first are positioned explicitly only if there are char positions
+        if (i == 0 || charPositions != null)
+          c("1 0 0 -1 ").c(cx).c(' ').c(y).c(" Tm\n");
+        c('<');
+        current = pf;
+      }
+      int code = pf.code(ch);
+      c(HEX_DIGITS.charAt(code >> 4)).c(HEX_DIGITS.charAt(code & 0xf));
+    }
+    if (current != null)
+      c("> Tj\n");
+    c("ET\n");
+  }
+
+  private void setFillColor(Color color) {
+    String rgb = color(color);
+    if (rgb.equals(mFillColor))
+      return;
+    mFillColor = rgb;
+    c(rgb).c(" rg\n");
+  }
+
+  private void setStroke(Paint paint) {
+    paint.apply(mGraphics);
+    String rgb = color(mGraphics.getColor());
+    if (!rgb.equals(mStrokeColor)) {
+      mStrokeColor = rgb;
+      c(rgb).c(" RG\n");
+    }
+    float width = 1;
+    Stroke stroke = mGraphics.getStroke();
+    if (stroke instanceof BasicStroke)
+      width = ((BasicStroke) stroke).getLineWidth();
+    if (width != mLineWidth) {
+      mLineWidth = width;
+      c(num(width)).c(" w\n");
+    }
+  }
+
+  private static String color(Color c) {
+    return num(c.getRed() / 255f) + " " + num(c.getGreen() / 255f) + " " + num(c.getBlue() / 255f);
+  }
+
+  private PdfWriter c(String text) {
+    mContent.append(text);
+    return this;
+  }
+
+  private PdfWriter c(int value) {
+    mContent.append(value);
+    return this;
+  }
+
+  private PdfWriter c(char ch) {
+    mContent.append(ch);
+    return this;
+  }
+
+  /**
+   * Format a number with at most three decimal places
+   */
+  private static String num(double value) {
+    long thousandths = Math.round(value * 1000);
+    if (thousandths % 1000 == 0)
+      return Long.toString(thousandths / 1000);
+    return Double.toString(thousandths / 1000.0);
+  }
+
+  private static byte[] deflate(CharSequence content) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (OutputStream out = new DeflaterOutputStream(bytes)) {
+      out.write(content.toString().getBytes(StandardCharsets.ISO_8859_1));
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    return bytes.toByteArray();
+  }
+
+  // ------------------------------------------------------------------
+  // Fonts
+  // ------------------------------------------------------------------
+
+  /**
+   * A Type3 font holding up to 255 of an AWT font's characters, defined in
+   * units of 1/1000 em
+   */
+  private static final class PdfFont {
+
+    PdfFont(Font font, int object) {
+      this.font = font.deriveFont(1000f);
+      this.object = object;
+    }
+
+    boolean full() {
+      return chars.length() == 255;
+    }
+
+    /**
+     * Get the code of a character, adding it if necessary
+     */
+    int code(char ch) {
+      int index = chars.indexOf(String.valueOf(ch));
+      if (index < 0) {
+        index = chars.length();
+        chars.append(ch);
+      }
+      return index + 1;
+    }
+
+    final Font font;
+    final int object;
+    final StringBuilder chars = new StringBuilder();
+    PdfFont overflow;
+  }
+
+  /**
+   * Get the PdfFont to use to draw a character in a particular font
+   */
+  private PdfFont pdfFont(Font font, char ch) {
+    String key = font.getName() + "_" + font.getStyle();
+    PdfFont pf = mFontMap.get(key);
+    if (pf == null) {
+      pf = addFont(font);
+      mFontMap.put(key, pf);
+    }
+    while (pf.chars.indexOf(String.valueOf(ch)) < 0 && pf.full()) {
+      if (pf.overflow == null)
+        pf.overflow = addFont(font);
+      pf = pf.overflow;
+    }
+    mPageFonts.add(pf);
+    return pf;
+  }
+
+  private PdfFont addFont(Font font) {
+    // The font's object number is reserved now, but the font is only written when the document is closed
+    PdfFont pf = new PdfFont(font, reserveObject());
+    mFonts.add(pf);
+    return pf;
+  }
+
+  private void writeFont(PdfFont pf) {
+    int count = pf.chars.length();
+    int[] charProcObjects = new int[count];
+    float[] widths = new float[count];
+    Rectangle2D fontBounds = null;
+    for (int i = 0; i < count; i++) {
+      GlyphVector gv = pf.font.createGlyphVector(FONT_RENDER_CONTEXT, String.valueOf(pf.chars.charAt(i)));
+      widths[i] = gv.getGlyphMetrics(0).getAdvance();
+      Shape outline = gv.getGlyphOutline(0);
+      Rectangle2D bounds = outline.getBounds2D();
+      if (fontBounds == null)
+        fontBounds = bounds;
+      else
+        fontBounds = fontBounds.createUnion(bounds);
+      charProcObjects[i] = newObject();
+      byte[] proc = deflate(glyphProcedure(widths[i], outline, bounds));
+      write("<< /Length " + proc.length + " /Filter /FlateDecode >>\nstream\n");
+      write(proc);
+      write("\nendstream\nendobj\n");
+    }
+
+    int toUnicodeObject = newObject();
+    byte[] cmap = deflate(toUnicodeCMap(pf.chars));
+    write("<< /Length " + cmap.length + " /Filter /FlateDecode >>\nstream\n");
+    write(cmap);
+    write("\nendstream\nendobj\n");
+
+    startObject(pf.object);
+    StringBuilder sb = new StringBuilder();
+    sb.append("<< /Type /Font /Subtype /Type3 /FontMatrix [0.001 0 0 0.001 0 0] /FontBBox [");
+    if (fontBounds == null)
+      sb.append("0 0 0 0");
+    else
+      sb.append(num(fontBounds.getMinX())).append(' ').append(num(-fontBounds.getMaxY())).append(' ')
+          .append(num(fontBounds.getMaxX())).append(' ').append(num(-fontBounds.getMinY()));
+    sb.append("]\n/CharProcs <<");
+    for (int i = 0; i < count; i++)
+      sb.append(" /g").append(i + 1).append(' ').append(charProcObjects[i]).append(" 0 R");
+    sb.append(" >>\n/Encoding << /Type /Encoding /Differences [1");
+    for (int i = 0; i < count; i++)
+      sb.append(" /g").append(i + 1);
+    sb.append("] >>\n/FirstChar 1 /LastChar ").append(Math.max(count, 1)).append(" /Widths [");
+    for (int i = 0; i < count; i++)
+      sb.append(' ').append(num(widths[i]));
+    if (count == 0)
+      sb.append(" 0");
+    sb.append(" ]\n/Resources << >> /ToUnicode ").append(toUnicodeObject).append(" 0 R >>\nendobj\n");
+    write(sb.toString());
+  }
+
+  /**
+   * Build the procedure that draws a glyph. The outline's y axis points down;
+   * glyph space's points up
+   */
+  private static String glyphProcedure(float width, Shape outline, Rectangle2D bounds) {
+    StringBuilder sb = new StringBuilder();
+    sb.append(num(width)).append(" 0 ").append(num(bounds.getMinX())).append(' ')
+        .append(num(-bounds.getMaxY())).append(' ').append(num(bounds.getMaxX())).append(' ')
+        .append(num(-bounds.getMinY())).append(" d1\n");
+    PathIterator iter = outline.getPathIterator(null);
+    double[] p = new double[6];
+    double lastX = 0;
+    double lastY = 0;
+    while (!iter.isDone()) {
+      switch (iter.currentSegment(p)) {
+      case PathIterator.SEG_MOVETO:
+        point(sb, p[0], p[1]).append("m\n");
+        lastX = p[0];
+        lastY = p[1];
+        break;
+      case PathIterator.SEG_LINETO:
+        point(sb, p[0], p[1]).append("l\n");
+        lastX = p[0];
+        lastY = p[1];
+        break;
+      case PathIterator.SEG_QUADTO:
+        // Convert to the equivalent cubic curve
+        point(sb, lastX + 2 * (p[0] - lastX) / 3, lastY + 2 * (p[1] - lastY) / 3);
+        point(sb, p[2] + 2 * (p[0] - p[2]) / 3, p[3] + 2 * (p[1] - p[3]) / 3);
+        point(sb, p[2], p[3]).append("c\n");
+        lastX = p[2];
+        lastY = p[3];
+        break;
+      case PathIterator.SEG_CUBICTO:
+        point(sb, p[0], p[1]);
+        point(sb, p[2], p[3]);
+        point(sb, p[4], p[5]).append("c\n");
+        lastX = p[4];
+        lastY = p[5];
+        break;
+      case PathIterator.SEG_CLOSE:
+        sb.append("h\n");
+        break;
+      }
+      iter.next();
+    }
+    sb.append(iter.getWindingRule() == PathIterator.WIND_EVEN_ODD ? "f*\n" : "f\n");
+    return sb.toString();
+  }
+
+  private static StringBuilder point(StringBuilder sb, double x, double y) {
+    return sb.append(num(x)).append(' ').append(num(-y)).append(' ');
+  }
+
+  /**
+   * Build a CMap mapping a font's codes to their Unicode characters, so that
+   * text can be extracted from the document
+   */
+  private static String toUnicodeCMap(CharSequence chars) {
+    StringBuilder sb = new StringBuilder();
+    sb.append("/CIDInit /ProcSet findresource begin\n12 dict begin\nbegincmap\n");
+    sb.append("/CIDSystemInfo << /Registry (Adobe) /Ordering (UCS) /Supplement 0 >> def\n");
+    sb.append("/CMapName /Adobe-Identity-UCS def\n/CMapType 2 def\n");
+    sb.append("1 begincodespacerange\n<00> <FF>\nendcodespacerange\n");
+    // At most 100 entries are allowed in each block
+    for (int start = 0; start < chars.length(); start += 100) {
+      int end = Math.min(start + 100, chars.length());
+      sb.append(end - start).append(" beginbfchar\n");
+      for (int i = start; i < end; i++)
+        sb.append(String.format("<%02X> <%04X>\n", i + 1, (int) chars.charAt(i)));
+      sb.append("endbfchar\n");
+    }
+    sb.append("endcmap\nCMapName currentdict /CMap defineresource pop\nend\nend\n");
+    return sb.toString();
+  }
+
+  // ------------------------------------------------------------------
+  // Objects
+  // ------------------------------------------------------------------
+
+  /**
+   * Start a new object, returning its number
+   */
+  private int newObject() {
+    int object = reserveObject();
+    startObject(object);
+    return object;
+  }
+
+  /**
+   * Assign a number to an object that is to be written later (with
+   * startObject()), writing nothing yet
+   */
+  private int reserveObject() {
+    int object = ++mObjectCount;
+    if (mOffsets.length <= object)
+      mOffsets = Arrays.copyOf(mOffsets, Math.max(mOffsets.length * 2, object + 1));
+    return object;
+  }
+
+  /**
+   * Start writing an object whose number has already been assigned
+   */
+  private void startObject(int object) {
+    mOffsets[object] = mPosition;
+    write(object + " 0 obj\n");
+  }
+
+  private void write(String text) {
+    write(text.getBytes(StandardCharsets.ISO_8859_1));
+  }
+
+  private void write(byte[] bytes) {
+    try {
+      mOutput.write(bytes);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    mPosition += bytes.length;
+  }
+
+  private static final int CATALOG_OBJECT = 1;
+  private static final int PAGE_TREE_OBJECT = 2;
+  private static final float POINTS_PER_INCH = 72;
+  private static final String HEX_DIGITS = "0123456789ABCDEF";
+  private static final FontRenderContext FONT_RENDER_CONTEXT = new FontRenderContext(null, true, true);
+
+  private final OutputStream mOutput;
+  private final Graphics2D mGraphics = SongLayout.scratchGraphics();
+  private final StringBuilder mContent = new StringBuilder();
+  private final IntArray.Builder mPageObjects = IntArray.newBuilder();
+  private final Map<String, PdfFont> mFontMap = hashMap();
+  private final List<PdfFont> mFonts = arrayList();
+  private final Set<PdfFont> mPageFonts = new LinkedHashSet<>();
+  private long[] mOffsets = new long[16];
+  private int mObjectCount;
+  private long mPosition;
+  private boolean mClosed;
+  private Style mStyle;
+  private String mFillColor;
+  private String mStrokeColor;
+  private float mLineWidth;
+}
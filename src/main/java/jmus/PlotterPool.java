@@ -0,0 +1,68 @@
+package jmus;
+
+import static js.base.Tools.*;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * A bounded pool of PagePlotters, so that threads can reuse plotters (and
+ * their page images) instead of allocating new ones for each page or band.
+ *
+ * Plotters are pooled by a key describing their images (size, resolution and
+ * pixel format); at most a few plotters are kept for each key. Thread safe
+ */
+final class PlotterPool {
+
+  /**
+   * Remove a plotter with a particular key from the pool; returns null if
+   * there isn't one. The plotter is not reset
+   */
+  static PagePlotter checkOut(List<Object> key) {
+    synchronized (sPlotterMap) {
+      Deque<PagePlotter> plotters = sPlotterMap.get(key);
+      if (plotters == null || plotters.isEmpty())
+        return null;
+      return plotters.removeLast();
+    }
+  }
+
+  /**
+   * Return a plotter to the pool; if the pool already holds enough plotters
+   * with its key, it is discarded
+   */
+  static void checkIn(List<Object> key, PagePlotter plotter) {
+    if (!sEnabled)
+      return;
+    synchronized (sPlotterMap) {
+      Deque<PagePlotter> plotters = sPlotterMap.get(key);
+      if (plotters == null) {
+        plotters = new ArrayDeque<>();
+        sPlotterMap.put(key, plotters);
+      }
+      if (plotters.size() < MAX_PLOTTERS_PER_KEY)
+        plotters.add(plotter);
+    }
+  }
+
+  /**
+   * Enable or disable pooling (for benchmarking); disabling it empties the
+   * pool
+   */
+  static void setEnabled(boolean enabled) {
+    sEnabled = enabled;
+    if (!enabled)
+      synchronized (sPlotterMap) {
+        sPlotterMap.clear();
+      }
+  }
+
+  // Enough for each fork/join worker to be plotting a band while another is being encoded
+  private static final int MAX_PLOTTERS_PER_KEY = ForkJoinPool.commonPool().getParallelism() + 2;
+
+  private static final Map<List<Object>, Deque<PagePlotter>> sPlotterMap = hashMap();
+  private static volatile boolean sEnabled = true;
+}
@@ -0,0 +1,385 @@
+package jmus;
+
+import static js.base.Tools.*;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.IndexColorModel;
+import java.awt.image.MultiPixelPackedSampleModel;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a PNG image a few rows at a time, so the whole image never needs to
+ * be held in memory.
+ *
+ * The color type matches the images supplied: 8-bit grayscale for
+ * TYPE_BYTE_GRAY images, a palette (of 1 to 8 bits per pixel) for images with
+ * an IndexColorModel, and 8-bit RGB for anything else. Each row of a gray or
+ * RGB image uses whichever filter minimizes the sum of its absolute filtered
+ * values.
+ *
+ * The filtered rows are divided into blocks that are compressed concurrently
+ * on the fork/join pool. Each block ends with a sync flush (so it ends on a
+ * byte boundary) and is primed with the end of the previous block as a
+ * dictionary, so the compressed blocks concatenate into a single zlib stream
+ */
+public final class PngEncoder {
+
+  public static final int DEFAULT_COMPRESSION_LEVEL = 6;
+
+  /**
+   * @param colorModel
+   *          color model of the images that will supply the rows
+   */
+  public PngEncoder(OutputStream outputStream, int width, int height, ColorModel colorModel) {
+    this(outputStream, width, height, colorModel, DEFAULT_COMPRESSION_LEVEL);
+  }
+
+  /**
+   * @param colorModel
+   *          color model of the images that will supply the rows
+   * @param compressionLevel
+   *          deflate level, from 0 (fastest; no compression) to 9 (smallest)
+   */
+  public PngEncoder(OutputStream outputStream, int width, int height, ColorModel colorModel,
+      int compressionLevel) {
+    checkArgument(compressionLevel >= 0 && compressionLevel <= 9, "bad compression level:", compressionLevel);
+    mOutput = outputStream;
+    mCompressionLevel = compressionLevel;
+    mWidth = width;
+    mHeight = height;
+    if (colorModel instanceof IndexColorModel) {
+      mColorType = COLOR_TYPE_PALETTE;
+      mBitDepth = colorModel.getPixelSize();
+      mRowBytes = (width * mBitDepth + 7) / 8;
+      mBytesPerPixel = 1;
+    } else if (colorModel.getNumComponents() == 1 && colorModel.getPixelSize() == 8) {
+      mColorType = COLOR_TYPE_GRAY;
+      mBitDepth = 8;
+      mRowBytes = width;
+      mBytesPerPixel = 1;
+    } else {
+      mColorType = COLOR_TYPE_RGB;
+      mBitDepth = 8;
+      mRowBytes = width * 3;
+      mBytesPerPixel = 3;
+    }
+    mRow = new byte[mRowBytes];
+    mPriorRow = new byte[mRowBytes];
+    mFilteredRow = new byte[1 + mRowBytes];
+    mPool = ForkJoinPool.commonPool();
+    mWindow = 2 * mPool.getParallelism();
+
+    ByteArrayOutputStream header = new ByteArrayOutputStream();
+    writeInt(header, width);
+    writeInt(header, height);
+    header.write(mBitDepth);
+    header.write(mColorType);
+    // Compression, filter and interlace methods
+    header.write(0);
+    header.write(0);
+    header.write(0);
+    write(SIGNATURE);
+    writeChunk("IHDR", header.toByteArray());
+
+    if (mColorType == COLOR_TYPE_PALETTE) {
+      IndexColorModel palette = (IndexColorModel) colorModel;
+      byte[] rgb = new byte[palette.getMapSize() * 3];
+      for (int i = 0; i < palette.getMapSize(); i++) {
+        rgb[i * 3] = (byte) palette.getRed(i);
+        rgb[i * 3 + 1] = (byte) palette.getGreen(i);
+        rgb[i * 3 + 2] = (byte) palette.getBlue(i);
+      }
+      writeChunk("PLTE", rgb);
+    }
+  }
+
+  /**
+   * Write the next rows of the image, taken from the top of another image
+   * (which must have the color model the encoder was constructed with)
+   */
+  public void writeRows(BufferedImage image, int rowCount) {
+    checkArgument(image.getWidth() == mWidth, "image width mismatch");
+    checkState(mRowsWritten + rowCount <= mHeight, "too many rows");
+    for (int y = 0; y < rowCount; y++) {
+      extractRow(image, y);
+      addImageData(filterRow());
+    }
+    mRowsWritten += rowCount;
+  }
+
+  /**
+   * Write the end of the image; doesn't close the output stream
+   */
+  public void finish() {
+    checkState(mRowsWritten == mHeight, "rows written:", mRowsWritten, "expected:", mHeight);
+    submitBlock(true);
+    while (!mPending.isEmpty()) {
+      byte[] data = mPending.remove().join();
+      writeImageData(data, mPending.isEmpty());
+    }
+    writeChunk("IEND", new byte[0]);
+    try {
+      mOutput.flush();
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private void addImageData(byte[] data) {
+    int offset = 0;
+    while (offset < data.length) {
+      int n = Math.min(data.length - offset, BLOCK_SIZE - mBlockLength);
+      System.arraycopy(data, offset, mBlock, mBlockLength, n);
+      mBlockLength += n;
+      offset += n;
+      if (mBlockLength == BLOCK_SIZE)
+        submitBlock(false);
+    }
+  }
+
+  /**
+   * Start compressing the current block; write any compressed blocks that are
+   * waiting if there are too many of them
+   */
+  private void submitBlock(boolean last) {
+    byte[] block = mBlock;
+    int length = mBlockLength;
+    byte[] dictionary = mPreviousBlock;
+    int level = mCompressionLevel;
+    mAdler.update(block, 0, length);
+    mPending.add(mPool.submit(() -> deflate(block, length, dictionary, level, last)));
+    mPreviousBlock = block;
+    mBlock = new byte[BLOCK_SIZE];
+    mBlockLength = 0;
+    while (mPending.size() > mWindow)
+      writeImageData(mPending.remove().join(), false);
+  }
+
+  /**
+   * Compress a block as raw deflate data, ending with a sync flush (or, if it
+   * is the last block, the final block)
+   *
+   * @param dictionary
+   *          the previous block (full), or null if this is the first block
+   */
+  private static byte[] deflate(byte[] block, int length, byte[] dictionary, int level, boolean last) {
+    Deflater deflater = new Deflater(level, true);
+    if (dictionary != null)
+      deflater.setDictionary(dictionary, dictionary.length - DICTIONARY_SIZE, DICTIONARY_SIZE);
+    deflater.setInput(block, 0, length);
+    ByteArrayOutputStream out = new ByteArrayOutputStream(length / 4 + 64);
+    byte[] buffer = new byte[1 << 15];
+    if (last) {
+      deflater.finish();
+      while (!deflater.finished()) {
+        int n = deflater.deflate(buffer);
+        out.write(buffer, 0, n);
+      }
+    } else {
+      int n;
+      do {
+        n = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+        out.write(buffer, 0, n);
+      } while (n == buffer.length);
+    }
+    deflater.end();
+    return out.toByteArray();
+  }
+
+  /**
+   * Write a compressed block as an IDAT chunk, adding the zlib header (to the
+   * first) and the checksum (after the last)
+   */
+  private void writeImageData(byte[] data, boolean last) {
+    ByteArrayOutputStream b = new ByteArrayOutputStream(data.length + 6);
+    if (!mHeaderWritten) {
+      b.write(ZLIB_HEADER[0]);
+      b.write(ZLIB_HEADER[1]);
+      mHeaderWritten = true;
+    }
+    b.write(data, 0, data.length);
+    if (last)
+      writeInt(b, (int) mAdler.getValue());
+    writeChunk("IDAT", b.toByteArray());
+  }
+
+  /**
+   * Copy a row of an image's pixels, in PNG order, to mRow
+   */
+  private void extractRow(BufferedImage image, int y) {
+    if (mColorType == COLOR_TYPE_RGB) {
+      if (mRgbRow == null)
+        mRgbRow = new int[mWidth];
+      image.getRGB(0, y, mWidth, 1, mRgbRow, 0, mWidth);
+      for (int x = 0, j = 0; x < mWidth; x++) {
+        int rgb = mRgbRow[x];
+        mRow[j++] = (byte) (rgb >> 16);
+        mRow[j++] = (byte) (rgb >> 8);
+        mRow[j++] = (byte) rgb;
+      }
+      return;
+    }
+    // Byte gray, indexed and packed binary images already hold their rows in PNG's format
+    byte[] data = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+    int stride;
+    if (image.getSampleModel() instanceof MultiPixelPackedSampleModel)
+      stride = ((MultiPixelPackedSampleModel) image.getSampleModel()).getScanlineStride();
+    else
+      stride = ((ComponentSampleModel) image.getSampleModel()).getScanlineStride();
+    System.arraycopy(data, y * stride, mRow, 0, mRowBytes);
+  }
+
+  /**
+   * Filter mRow into mFilteredRow, and make it the prior row. Packed palette
+   * rows are left unfiltered; others use the filter that minimizes the sum of
+   * the absolute values of the filtered bytes (treated as signed)
+   */
+  private byte[] filterRow() {
+    byte[] out = mFilteredRow;
+    byte[] row = mRow;
+    if (mColorType == COLOR_TYPE_PALETTE) {
+      out[0] = FILTER_NONE;
+      System.arraycopy(row, 0, out, 1, row.length);
+      return out;
+    }
+
+    int bestFilter = FILTER_NONE;
+    long bestSum = Long.MAX_VALUE;
+    for (int filter = FILTER_NONE; filter <= FILTER_PAETH; filter++) {
+      long sum = 0;
+      for (int i = 0; i < row.length && sum < bestSum; i++)
+        sum += Math.abs((byte) filtered(filter, i));
+      if (sum < bestSum) {
+        bestSum = sum;
+        bestFilter = filter;
+      }
+    }
+    out[0] = (byte) bestFilter;
+    for (int i = 0; i < row.length; i++)
+      out[1 + i] = (byte) filtered(bestFilter, i);
+
+    mRow = mPriorRow;
+    mPriorRow = row;
+    return out;
+  }
+
+  /**
+   * Apply a filter to a byte of mRow
+   */
+  private int filtered(int filter, int i) {
+    int x = mRow[i] & 0xff;
+    int bpp = mBytesPerPixel;
+    int a = (i >= bpp) ? mRow[i - bpp] & 0xff : 0;
+    int b = mPriorRow[i] & 0xff;
+    switch (filter) {
+    default:
+      return x;
+    case FILTER_SUB:
+      return x - a;
+    case FILTER_UP:
+      return x - b;
+    case FILTER_AVERAGE:
+      return x - ((a + b) >> 1);
+    case FILTER_PAETH: {
+      int c = (i >= bpp) ? mPriorRow[i - bpp] & 0xff : 0;
+      int p = a + b - c;
+      int pa = Math.abs(p - a);
+      int pb = Math.abs(p - b);
+      int pc = Math.abs(p - c);
+      if (pa <= pb && pa <= pc)
+        return x - a;
+      if (pb <= pc)
+        return x - b;
+      return x - c;
+    }
+    }
+  }
+
+  private void writeChunk(String type, byte[] data) {
+    writeChunk(type, data, data.length);
+  }
+
+  private void writeChunk(String type, byte[] data, int length) {
+    byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+    CRC32 crc = new CRC32();
+    crc.update(typeBytes);
+    crc.update(data, 0, length);
+    ByteArrayOutputStream b = new ByteArrayOutputStream(4);
+    writeInt(b, length);
+    write(b.toByteArray());
+    write(typeBytes);
+    try {
+      mOutput.write(data, 0, length);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    b.reset();
+    writeInt(b, (int) crc.getValue());
+    write(b.toByteArray());
+  }
+
+  private void write(byte[] bytes) {
+    try {
+      mOutput.write(bytes);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static void writeInt(ByteArrayOutputStream b, int value) {
+    b.write(value >>> 24);
+    b.write(value >>> 16);
+    b.write(value >>> 8);
+    b.write(value);
+  }
+
+  private static final byte[] SIGNATURE = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n' };
+  private static final int COLOR_TYPE_GRAY = 0;
+  private static final int COLOR_TYPE_RGB = 2;
+  private static final int COLOR_TYPE_PALETTE = 3;
+  private static final int FILTER_NONE = 0;
+  private static final int FILTER_SUB = 1;
+  private static final int FILTER_UP = 2;
+  private static final int FILTER_AVERAGE = 3;
+  private static final int FILTER_PAETH = 4;
+  // Deflate, 32K window, default compression; with the check bits
+  private static final int[] ZLIB_HEADER = { 0x78, 0x9c };
+  // Size of the (uncompressed) blocks that are compressed concurrently
+  private static final int BLOCK_SIZE = 1 << 18;
+  private static final int DICTIONARY_SIZE = 1 << 15;
+
+  private final OutputStream mOutput;
+  private final int mWidth;
+  private final int mHeight;
+  private final int mColorType;
+  private final int mBitDepth;
+  private final int mRowBytes;
+  private final int mBytesPerPixel;
+  private final int mCompressionLevel;
+  private final byte[] mFilteredRow;
+  private final ForkJoinPool mPool;
+  private final int mWindow;
+  private final Deque<ForkJoinTask<byte[]>> mPending = new ArrayDeque<>();
+  private final Adler32 mAdler = new Adler32();
+  private byte[] mRow;
+  private byte[] mPriorRow;
+  private int[] mRgbRow;
+  private int mRowsWritten;
+  private byte[] mBlock = new byte[BLOCK_SIZE];
+  private int mBlockLength;
+  private byte[] mPreviousBlock;
+  private boolean mHeaderWritten;
+}
@@ -4,7 +4,6 @@ import static jmus.MusUtil.*;
 import static js.base.Tools.*;
 
 import java.awt.FontMetrics;
-import java.awt.Graphics2D;
 import java.io.File;
 import java.util.List;
 import java.util.Random;
@@ -32,11 +31,9 @@ public class QuizGenerator {
 
   public void generate() {
 
-    PagePlotter p = new PagePlotter();
-    Graphics2D g = p.graphics();
-    // rect(g, PAGE_CONTENT);
-
     Style style = style(0);
+    DisplayList.Builder d = DisplayList.newBuilder(style);
+    SongLayout layout = new SongLayout(style);
     int xAdvance = style.meanChordWidthPixels() + style.chordPadX() + 8;
 
     int y = PAGE_CONTENT.y;
@@ -52,11 +49,10 @@ public class QuizGenerator {
       int chordsPerRow = 16;
       List<Chord> chords = randomChords(chordsPerRow);
 
-      drawBarBetweenSets(g, style, y);
+      drawBarBetweenSets(d, style, y);
 
       int x = PAGE_CONTENT.x + indent;
-      p.setKey(null);
-      plotChords(p, chords, null, style, new IPoint(x, y), xAdvance);
+      plotChords(d, chords, null, new IPoint(x, y), xAdvance);
 
       y += ysep * 1.2;
 
@@ -72,20 +68,17 @@ public class QuizGenerator {
           int y0 = y - style.chordPadX();
           int y1 = y0 + ysep;
           Paint bgndPaint = ((rowNum & 1) == 0) ? PAINT_ROW_BGND0 : PAINT_ROW_BGND1;
-          bgndPaint.apply(g);
-          fill(g, x0, y0, x1 - x0, y1 - y0);
+          d.addFill(x0, y0, x1 - x0, y1 - y0, bgndPaint);
         }
 
         String n = symbolicName(key);
         {
-          PAINT_SCALE.apply(g);
-          FontMetrics f = g.getFontMetrics();
+          FontMetrics f = layout.fontMetrics(PAINT_SCALE);
           int tx = x - f.stringWidth(n) - style.chordPadX() * 2;
-          g.drawString(n, tx, y + f.getAscent());
+          d.addString(tx, y + f.getAscent(), n, PAINT_SCALE);
         }
 
-        p.setKey(key);
-        plotChords(p, chords, key, style, new IPoint(x, y), xAdvance);
+        plotChords(d, chords, key, new IPoint(x, y), xAdvance);
         y += ysep;
       }
       y += ysep * .3f;
@@ -95,21 +88,21 @@ public class QuizGenerator {
         break;
     }
 
-    drawBarBetweenSets(g, style, y);
+    drawBarBetweenSets(d, style, y);
 
+    String extension = SongOper.outputExtension(mConfig);
     File outFile;
     for (int i = 0;; i++) {
-      outFile = Files.getDesktopFile(String.format("quiz%02d.png", i));
+      outFile = Files.getDesktopFile(String.format("quiz%02d.", i) + extension);
       if (!outFile.exists())
         break;
     }
-    p.generateOutputFile(outFile);
+    SongOper.writePage(d.build(), mConfig, outFile);
   }
 
-  private void drawBarBetweenSets(Graphics2D g, Style style, int y) {
-    PAINT_SEP.apply(g);
+  private void drawBarBetweenSets(DisplayList.Builder d, Style style, int y) {
     y -= style.spacingBetweenSections() * 0.7f;
-    line(g, PAGE_CONTENT.x, y, PAGE_CONTENT.endX(), y);
+    d.addLine(PAGE_CONTENT.x, y, PAGE_CONTENT.endX(), y, PAINT_SEP);
   }
 
   private List<MusicKey> buildMusicKeyList() {
@@ -126,13 +119,10 @@ public class QuizGenerator {
     return musicKeys;
   }
 
-  private void plotChords(PagePlotter p, List<Chord> chords, MusicKey key, Style style, IPoint loc,
-      int xAdvance) {
-    p.setKey(key);
+  private void plotChords(DisplayList.Builder d, List<Chord> chords, MusicKey key, IPoint loc, int xAdvance) {
     int x = loc.x;
-    int y = loc.y;
     for (Chord c : chords) {
-      p.plotChord(c, style, new IPoint(x, y));
+      d.addChord(x, loc.y, PackedChord.fromChord(c), key);
       x += xAdvance;
     }
   }
@@ -0,0 +1,80 @@
+package jmus;
+
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A cache of rendered rows, so that rows that repeat (within a song, or
+ * across songs and pages) are rasterized only once and then copied into
+ * place.
+ *
+ * Rows are cached by a key describing their structure (the sections they
+ * contain, and the state they are plotted with). The cache is bounded by the
+ * total size of its images, discarding the least recently used rows when it
+ * is full. Row images have transparent backgrounds, so only plotters of
+ * color pages use the cache. Thread safe
+ */
+final class RowCache {
+
+  /**
+   * Get the image of a row; returns null if it isn't in the cache
+   */
+  static BufferedImage get(List<Object> key) {
+    synchronized (sRowMap) {
+      return sRowMap.get(key);
+    }
+  }
+
+  /**
+   * Add the image of a row to the cache, discarding other rows if necessary
+   */
+  static void put(List<Object> key, BufferedImage image) {
+    long size = bytes(image);
+    synchronized (sRowMap) {
+      if (size > sCapacity)
+        return;
+      BufferedImage previous = sRowMap.put(key, image);
+      if (previous != null)
+        sBytes -= bytes(previous);
+      sBytes += size;
+      trim();
+    }
+  }
+
+  /**
+   * Set the maximum total size of the cached images, in bytes; zero disables
+   * the cache
+   */
+  static void setCapacity(long bytes) {
+    synchronized (sRowMap) {
+      sCapacity = bytes;
+      trim();
+    }
+  }
+
+  static boolean enabled() {
+    return sCapacity > 0;
+  }
+
+  private static void trim() {
+    Iterator<BufferedImage> iter = sRowMap.values().iterator();
+    while (sBytes > sCapacity && iter.hasNext()) {
+      sBytes -= bytes(iter.next());
+      iter.remove();
+    }
+  }
+
+  private static long bytes(BufferedImage image) {
+    return 4L * image.getWidth() * image.getHeight();
+  }
+
+  static final long DEFAULT_CAPACITY = 128L << 20;
+
+  // Ordered from least to most recently used
+  private static final Map<List<Object>, BufferedImage> sRowMap = new LinkedHashMap<>(16, 0.75f, true);
+  private static volatile long sCapacity = DEFAULT_CAPACITY;
+  private static long sBytes;
+}
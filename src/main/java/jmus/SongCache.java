@@ -0,0 +1,100 @@
+package jmus;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import js.base.BaseObject;
+
+/**
+ * A disk cache of parsed songs, in CachedSong's encoding, keyed by a hash of
+ * the source text and the parser and encoding versions.
+ *
+ * Cache files are written atomically, so a cache directory can be shared by
+ * concurrent threads or processes
+ */
+public final class SongCache extends BaseObject {
+
+  public SongCache(File directory) {
+    mDirectory = directory;
+  }
+
+  /**
+   * Get the parsed form of a song source file, parsing it only if it isn't
+   * already in the cache
+   */
+  public CachedSong get(File sourceFile) {
+    byte[] source;
+    try {
+      source = java.nio.file.Files.readAllBytes(sourceFile.toPath());
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    return get(source, sourceFile.getName());
+  }
+
+  /**
+   * Get the parsed form of (UTF-8) song source text, parsing it only if it
+   * isn't already in the cache
+   */
+  public CachedSong get(byte[] source, String sourceDescription) {
+    File cacheFile = new File(mDirectory, cacheKey(source) + ".song");
+    if (cacheFile.exists()) {
+      try {
+        CachedSong song = new CachedSong(java.nio.file.Files.readAllBytes(cacheFile.toPath()));
+        log("cache hit:", sourceDescription);
+        return song;
+      } catch (Throwable t) {
+        log("discarding unreadable cache file:", cacheFile, t.getMessage());
+      }
+    }
+
+    String text = new String(source, StandardCharsets.UTF_8);
+    byte[] encoded = CachedSong.encode(new SongParser(text, sourceDescription).parse());
+    write(cacheFile, encoded);
+    return new CachedSong(encoded);
+  }
+
+  /**
+   * Write a file atomically, by writing to a temporary file in the same
+   * directory and renaming it
+   */
+  private void write(File file, byte[] content) {
+    try {
+      java.nio.file.Files.createDirectories(mDirectory.toPath());
+      Path temp = java.nio.file.Files.createTempFile(mDirectory.toPath(), file.getName(), ".tmp");
+      try {
+        java.nio.file.Files.write(temp, content);
+        java.nio.file.Files.move(temp, file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+            StandardCopyOption.REPLACE_EXISTING);
+      } finally {
+        java.nio.file.Files.deleteIfExists(temp);
+      }
+    } catch (IOException e) {
+      // Failing to cache a song isn't fatal
+      log("failed to write cache file:", file, e.getMessage());
+    }
+  }
+
+  private static String cacheKey(byte[] source) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    }
+    digest.update(source);
+    digest.update((byte) SongParser.VERSION);
+    digest.update((byte) CachedSong.FORMAT_VERSION);
+    StringBuilder sb = new StringBuilder();
+    for (byte b : digest.digest())
+      sb.append(String.format("%02x", b & 0xff));
+    return sb.toString();
+  }
+
+  private final File mDirectory;
+}
@@ -0,0 +1,348 @@
+package jmus;
+
+import static jmus.MusUtil.*;
+import static js.base.Tools.*;
+
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+
+import jmus.PagePlotter.PlotRow;
+import jmus.gen.MusicKey;
+import jmus.gen.SectionType;
+import jmus.gen.Style;
+import js.geometry.Matrix;
+import js.graphics.Paint;
+
+/**
+ * Lays out a song's sections on the page, producing a DisplayList.
+ *
+ * Layout draws nothing; text is measured using a scratch Graphics2D with the
+ * same transform and hints as a PagePlotter's page
+ */
+public final class SongLayout {
+
+  public SongLayout(Style style) {
+    mStyle = style;
+    mGraphics = scratchGraphics();
+  }
+
+  /**
+   * Construct a Graphics2D, with the same transform and hints as a
+   * PagePlotter's page, for measuring text
+   */
+  static Graphics2D scratchGraphics() {
+    Graphics2D g = new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB).createGraphics();
+    g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+    g.setTransform(Matrix.getScale(DOTS_PER_INCH).toAffineTransform());
+    return g;
+  }
+
+  /**
+   * Get the metrics of a paint's font, as drawn on a page
+   */
+  public FontMetrics fontMetrics(Paint paint) {
+    paint.apply(mGraphics);
+    return mGraphics.getFontMetrics();
+  }
+
+  /**
+   * Lay out a song, starting at the top of the page
+   *
+   * @param key
+   *          initial key (may be null)
+   */
+  public DisplayList layout(List<PackedSection> sections, MusicKey key) {
+    prepare();
+    mKey = key;
+    layoutSections(sections, PAGE_CONTENT.y);
+    return mDisplayList.build();
+  }
+
+  /**
+   * Lay out a sequence of previously laid out rows (typically one page's worth)
+   * starting at the top of the page, each with the key and beats per bar it
+   * was originally laid out with
+   */
+  public DisplayList layoutRows(List<PlotRow> rows) {
+    prepare();
+    int y = PAGE_CONTENT.y;
+    for (PlotRow row : rows) {
+      mKey = row.key;
+      mBeatsPerBar = row.beatsPerBar;
+      y = layoutSections(row.sections, y);
+    }
+    return mDisplayList.build();
+  }
+
+  /**
+   * Lay out a song and divide its rows into pages, breaking between rows. Rows
+   * at the start of the song that hold its title (and any subtitles) are
+   * repeated at the top of each continuation page
+   */
+  public List<List<PlotRow>> paginate(List<PackedSection> sections, MusicKey key) {
+    List<PlotRow> rows = layout(sections, key).rows();
+    List<List<PlotRow>> pages = arrayList();
+    if (rows.isEmpty())
+      return pages;
+
+    int headerCount = 0;
+    while (headerCount < rows.size() && isHeaderRow(rows.get(headerCount)))
+      headerCount++;
+    List<PlotRow> header = rows.subList(0, headerCount);
+    int headerHeight = (headerCount < rows.size()) ? rows.get(headerCount).y - rows.get(0).y : 0;
+
+    int start = 0;
+    while (start < rows.size()) {
+      List<PlotRow> page = arrayList();
+      // Each page's rows are plotted at the top of its content area, or below the header
+      int top = PAGE_CONTENT.y;
+      if (start != 0) {
+        page.addAll(header);
+        top += headerHeight;
+      }
+      int offset = rows.get(start).y - top;
+      int end = start;
+      do {
+        page.add(rows.get(end));
+        end++;
+      } while (end < rows.size() && rows.get(end).y + rows.get(end).height - offset <= PAGE_CONTENT.endY());
+      pages.add(page);
+      start = end;
+    }
+    return pages;
+  }
+
+  /**
+   * Lay out a song as a sequence of pages
+   */
+  public List<DisplayList> layoutPages(List<PackedSection> sections, MusicKey key) {
+    List<DisplayList> pages = arrayList();
+    for (List<PlotRow> page : paginate(sections, key))
+      pages.add(layoutRows(page));
+    return pages;
+  }
+
+  private static boolean isHeaderRow(PlotRow row) {
+    boolean hasTitle = false;
+    for (PackedSection s : row.sections) {
+      if (s.type() == SectionType.TITLE || s.type() == SectionType.SUBTITLE)
+        hasTitle = true;
+      else if (visibleSection(s.type()))
+        return false;
+    }
+    return hasTitle;
+  }
+
+  /**
+   * Get the paint used for a type of text section
+   */
+  static Paint textPaint(Style style, SectionType type) {
+    switch (type) {
+    default:
+      throw notSupported("text type", type);
+    case TITLE:
+      return style.paintTitle();
+    case SUBTITLE:
+      return style.paintSubtitle();
+    case TEXT:
+      return style.paintText();
+    case SMALL_TEXT:
+      return style.paintSmallText();
+    }
+  }
+
+  private void prepare() {
+    mDisplayList = DisplayList.newBuilder(mStyle);
+    mBeatsPerBar = 0;
+  }
+
+  /**
+   * Lay out sections, starting at the start of a row
+   *
+   * @return the y coordinate following the sections
+   */
+  private int layoutSections(List<PackedSection> sections, int y) {
+    Style style = mStyle;
+    mSections = sections;
+    summarizeRows();
+
+    int x = PAGE_CONTENT.x;
+    int rowHeight = 0;
+    boolean startOfRow = true;
+
+    for (int sectionNumber = 0; sectionNumber < sections.size(); sectionNumber++) {
+
+      if (startOfRow) {
+        startRow(sectionNumber, y);
+        startOfRow = false;
+      }
+
+      PackedSection section = sections.get(sectionNumber);
+
+      // size in pixels of section
+      int sectionWidth = 0;
+      int sectionHeight = -1;
+
+      switch (section.type()) {
+
+      default:
+        throw notSupported("unsupported section type:", section);
+
+      case BEATS:
+        mBeatsPerBar = section.intArg();
+        break;
+
+      case LINE_BREAK:
+        endRow(sectionNumber + 1, rowHeight);
+        startOfRow = true;
+        x = PAGE_CONTENT.x;
+        y += rowHeight;
+        rowHeight = 0;
+        break;
+
+      case PARAGRAPH_BREAK:
+        endRow(sectionNumber + 1, rowHeight);
+        startOfRow = true;
+        x = PAGE_CONTENT.x;
+        y += rowHeight + 2 * style.barPadY();
+        rowHeight = 0;
+        break;
+
+      case KEY:
+        mKey = musicKey(section.textArg());
+        break;
+
+      case TITLE:
+      case SUBTITLE:
+      case TEXT:
+      case SMALL_TEXT: {
+        SectionType type = section.type();
+        int xPadding = style.barPadX() / 3;
+        int px = x + xPadding;
+        textPaint(style, type).apply(mGraphics);
+        FontMetrics f = mGraphics.getFontMetrics();
+        int width = f.stringWidth(section.textArg());
+        int tx = px;
+        int ty;
+        if (mRowContainsChords)
+          ty = y + style.chordHeight();
+        else
+          ty = y + f.getAscent();
+        if (mVisibleSectionsInRow == 1 && (type == SectionType.TITLE || type == SectionType.SUBTITLE))
+          tx = PAGE_CONTENT.midX() - width / 2;
+        mDisplayList.addText(tx, ty, section.textArg(), type);
+        px += xPadding;
+        sectionWidth = px - x + width;
+        sectionHeight = f.getHeight();
+      }
+        break;
+
+      case CHORD_SEQUENCE:
+        sectionWidth = layoutChords(section.codes(), x, y);
+        sectionHeight = style.chordHeight() + style.barPadY();
+        break;
+      }
+
+      if (sectionHeight >= 0) {
+        rowHeight = Math.max(rowHeight, sectionHeight);
+        x += sectionWidth;
+      }
+    }
+    if (!startOfRow)
+      endRow(sections.size(), rowHeight);
+    return y;
+  }
+
+  /**
+   * Lay out a sequence of chords as bars, padding each bar with empty beats if
+   * necessary
+   *
+   * @return the width of the bars
+   */
+  private int layoutChords(int[] codes, int x, int y) {
+    Style style = mStyle;
+    int barHeight = style.chordHeight() + style.barPadY();
+    int chordAdvance = style.meanChordWidthPixels() + style.chordPadX();
+    int barX = x;
+    for (int barStart = 0; barStart < codes.length;) {
+      int barEnd = PackedChord.barEnd(codes, barStart);
+      int chordCount = Math.max(barEnd - barStart, mBeatsPerBar);
+      int barWidth = chordAdvance * chordCount + style.chordPadX();
+      mDisplayList.addBar(barX, y, barWidth, barHeight);
+      int cx = barX + style.barPadX();
+      int cy = y + style.barPadY();
+      for (int j = 0; j < chordCount; j++) {
+        int k = barStart + j;
+        mDisplayList.addChord(cx, cy, (k < barEnd) ? codes[k] : PackedChord.BEAT, mKey);
+        cx += chordAdvance;
+      }
+      barX += barWidth;
+      barStart = barEnd;
+    }
+    return barX - x;
+  }
+
+  /**
+   * For each section, determine the number of visible sections, and whether
+   * there are any chords, from it to the end of its row. This is done in a
+   * single pass (from the last section to the first)
+   */
+  private void summarizeRows() {
+    int count = mSections.size();
+    if (mVisibleCounts == null || mVisibleCounts.length < count) {
+      mVisibleCounts = new int[count];
+      mChordCounts = new int[count];
+    }
+    int visible = 0;
+    int chords = 0;
+    for (int i = count - 1; i >= 0; i--) {
+      SectionType type = mSections.get(i).type();
+      if (type == SectionType.LINE_BREAK || type == SectionType.PARAGRAPH_BREAK) {
+        visible = 0;
+        chords = 0;
+      } else {
+        if (visibleSection(type))
+          visible++;
+        if (type == SectionType.CHORD_SEQUENCE)
+          chords++;
+      }
+      mVisibleCounts[i] = visible;
+      mChordCounts[i] = chords;
+    }
+  }
+
+  private void startRow(int sectionNumber, int y) {
+    mDisplayList.startRow();
+    mRowStartSection = sectionNumber;
+    mRowY = y;
+    mRowKey = mKey;
+    mRowBeatsPerBar = mBeatsPerBar;
+    mVisibleSectionsInRow = mVisibleCounts[sectionNumber];
+    mRowContainsChords = mChordCounts[sectionNumber] != 0;
+  }
+
+  private void endRow(int endSectionNumber, int rowHeight) {
+    List<PackedSection> sections = new ArrayList<>(mSections.subList(mRowStartSection, endSectionNumber));
+    mDisplayList.addRow(new PlotRow(sections, mRowKey, mRowBeatsPerBar, mRowY, rowHeight));
+  }
+
+  private final Style mStyle;
+  private final Graphics2D mGraphics;
+  private DisplayList.Builder mDisplayList;
+  private List<PackedSection> mSections;
+  private MusicKey mKey;
+  private int mBeatsPerBar;
+  private int[] mVisibleCounts;
+  private int[] mChordCounts;
+  private int mRowStartSection;
+  private int mRowY;
+  private MusicKey mRowKey;
+  private int mRowBeatsPerBar;
+  // True if the current row contains some chords
+  private boolean mRowContainsChords;
+  private int mVisibleSectionsInRow;
+}
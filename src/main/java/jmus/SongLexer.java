@@ -0,0 +1,287 @@
+package jmus;
+
+import static js.base.Tools.*;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Tokenizes song source text read incrementally from a Reader, using the DFA
+ * compiled from tokens.rxp (see TokenTables).
+ *
+ * Unlike js.parsing.Scanner, it doesn't need the entire source as a String;
+ * only a read buffer holding (at least) the current token is kept in memory.
+ * Whitespace and comments (T_WS) are skipped.
+ */
+public final class SongLexer implements TokenCursor {
+
+  public SongLexer(Reader reader, String sourceDescription) {
+    mReader = reader;
+    mSourceDescription = sourceDescription;
+  }
+
+  // ------------------------------------------------------------------
+  // TokenCursor interface
+  // ------------------------------------------------------------------
+
+  @Override
+  public int id() {
+    if (mTokenId == UNSCANNED)
+      scanToken();
+    return mTokenId;
+  }
+
+  @Override
+  public void advance() {
+    if (id() < 0)
+      throw failAt(mLine, mColumn, "unexpected end of input");
+    consume(mTokenLength);
+    mTokenId = UNSCANNED;
+  }
+
+  @Override
+  public char[] chars() {
+    id();
+    return mBuffer;
+  }
+
+  @Override
+  public int start() {
+    id();
+    return mTokenStart;
+  }
+
+  @Override
+  public int length() {
+    id();
+    return mTokenLength;
+  }
+
+  @Override
+  public RuntimeException fail(Object... messages) {
+    if (id() < 0)
+      return failAt(mLine, mColumn, join(messages), "(at end of input)");
+    return failAt(mLine, mColumn, join(messages), "token:", tokenName(mTokenId),
+        quote(new String(mBuffer, mTokenStart, mTokenLength)));
+  }
+
+  // ------------------------------------------------------------------
+  // Token objects
+  // ------------------------------------------------------------------
+
+  public boolean hasNext() {
+    return id() >= 0;
+  }
+
+  public Token read() {
+    if (id() < 0)
+      throw failAt(mLine, mColumn, "unexpected end of input");
+    Token t = new Token(this, mTokenId, new String(mBuffer, mTokenStart, mTokenLength), mLine, mColumn);
+    advance();
+    return t;
+  }
+
+  public Token read(int tokenId) {
+    if (id() != tokenId)
+      throw fail("expected", tokenName(tokenId));
+    return read();
+  }
+
+  /**
+   * Read the next token if it has a particular id; otherwise, return null
+   */
+  public Token readIf(int tokenId) {
+    if (id() != tokenId)
+      return null;
+    return read();
+  }
+
+  public static String tokenName(int tokenId) {
+    return TokenTables.TOKEN_NAMES[tokenId];
+  }
+
+  /**
+   * A token read by a SongLexer
+   */
+  public static final class Token {
+
+    private Token(SongLexer lexer, int id, String text, int line, int column) {
+      mLexer = lexer;
+      mId = id;
+      mText = text;
+      mLine = line;
+      mColumn = column;
+    }
+
+    public int id() {
+      return mId;
+    }
+
+    public boolean id(int tokenId) {
+      return mId == tokenId;
+    }
+
+    public String text() {
+      return mText;
+    }
+
+    /**
+     * Get the line number (1 = first line)
+     */
+    public int line() {
+      return mLine;
+    }
+
+    /**
+     * Get the column number (1 = first column)
+     */
+    public int column() {
+      return mColumn;
+    }
+
+    public RuntimeException fail(Object... messages) {
+      return mLexer.failAt(mLine, mColumn, join(messages), "token:", tokenName(mId), quote(mText));
+    }
+
+    @Override
+    public String toString() {
+      return tokenName(mId) + ":" + quote(mText);
+    }
+
+    private final SongLexer mLexer;
+    private final int mId;
+    private final String mText;
+    private final int mLine;
+    private final int mColumn;
+  }
+
+  private RuntimeException failAt(int line, int column, Object... messages) {
+    return badArg(mSourceDescription + "(" + line + ":" + column + ")", join(messages));
+  }
+
+  static String join(Object[] messages) {
+    StringBuilder sb = new StringBuilder();
+    for (Object m : messages) {
+      if (sb.length() != 0)
+        sb.append(' ');
+      sb.append(m);
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Scan the next (non-whitespace) token, leaving it at the start of the
+   * buffer (unconsumed); or set its id to -1 if at end of input
+   */
+  private void scanToken() {
+    while (true) {
+      if (!ensureAvailable(1)) {
+        mTokenId = -1;
+        mTokenLength = 0;
+        return;
+      }
+
+      // Find the longest prefix of the remaining input that is a token
+      int state = 0;
+      int length = 0;
+      int acceptId = -1;
+      int acceptLength = 0;
+      while (true) {
+        int tokenId = TokenTables.ACCEPT[state];
+        if (tokenId >= 0) {
+          acceptId = tokenId;
+          acceptLength = length;
+        }
+        if (!ensureAvailable(length + 1))
+          break;
+        state = TokenTables.transition(state, mBuffer[mTokenStart + length]);
+        if (state < 0)
+          break;
+        length++;
+      }
+
+      if (acceptId < 0)
+        throw failAt(mLine, mColumn, "unrecognized input:",
+            quote(new String(mBuffer, mTokenStart, Math.min(length + 1, mLimit - mTokenStart))));
+
+      if (acceptId != MusUtil.T_WS) {
+        mTokenId = acceptId;
+        mTokenLength = acceptLength;
+        return;
+      }
+      consume(acceptLength);
+    }
+  }
+
+  /**
+   * Advance past the first n characters of the buffer, updating the line and
+   * column numbers
+   */
+  private void consume(int n) {
+    for (int i = 0; i < n; i++) {
+      if (mBuffer[mTokenStart + i] == '\n') {
+        mLine++;
+        mColumn = 1;
+      } else
+        mColumn++;
+    }
+    mTokenStart += n;
+  }
+
+  /**
+   * Ensure at least n characters, starting with the current token, are in the
+   * buffer; returns false if end of input is reached first
+   */
+  private boolean ensureAvailable(int n) {
+    while (mLimit - mTokenStart < n) {
+      if (mEndOfInput)
+        return false;
+      fillBuffer();
+    }
+    return true;
+  }
+
+  private void fillBuffer() {
+    // Discard the characters preceding the current token
+    if (mTokenStart > 0) {
+      int remaining = mLimit - mTokenStart;
+      System.arraycopy(mBuffer, mTokenStart, mBuffer, 0, remaining);
+      mLimit = remaining;
+      mTokenStart = 0;
+    }
+    // If the current token (nearly) fills the buffer, expand it
+    if (mBuffer.length - mLimit < MIN_READ_SIZE) {
+      char[] expanded = new char[mBuffer.length * 2];
+      System.arraycopy(mBuffer, 0, expanded, 0, mLimit);
+      mBuffer = expanded;
+    }
+    try {
+      int count = mReader.read(mBuffer, mLimit, mBuffer.length - mLimit);
+      if (count < 0)
+        mEndOfInput = true;
+      else
+        mLimit += count;
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static final int INITIAL_BUFFER_SIZE = 8192;
+  private static final int MIN_READ_SIZE = 64;
+
+  private final Reader mReader;
+  private final String mSourceDescription;
+  private char[] mBuffer = new char[INITIAL_BUFFER_SIZE];
+  // Position within buffer of the start of the current token
+  private int mTokenStart;
+  // Number of characters in the buffer
+  private int mLimit;
+  private boolean mEndOfInput;
+  private int mLine = 1;
+  private int mColumn = 1;
+  // Id and length of the current token, which starts at mTokenStart
+  private int mTokenId = UNSCANNED;
+  private int mTokenLength;
+
+  private static final int UNSCANNED = -2;
+}
@@ -27,12 +27,18 @@ package jmus;
 import static js.base.Tools.*;
 
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 import static jmus.MusUtil.*;
 
 import jmus.gen.MusicKey;
 import jmus.gen.SongConfig;
 import jmus.gen.Song;
+import jmus.gen.Style;
 import js.app.AppOper;
 import js.file.Files;
 
@@ -73,6 +79,12 @@ public class SongOper extends AppOper {
 
     if (Files.empty(mConfig.input())) {
       generateQuiz();
+    } else if (BatchRenderer.isBatchInput(mConfig.input())) {
+      new BatchRenderer(mConfig).render();
+    } else if (mConfig.songbook()) {
+      generateSongbook();
+    } else if (mConfig.fanOut()) {
+      generateFanOut();
     } else {
       generateSong();
     }
@@ -87,23 +99,194 @@ public class SongOper extends AppOper {
     if (Files.empty(mSourceFile))
       setError("Please specify a source file");
 
-    Song song = new SongParser(mSourceFile).parse();
-
-    //pr("parsed:",INDENT,song);
+    renderSong(mConfig, mSourceFile, outputFile(mConfig));
+  }
 
+  /**
+   * Parse a songbook, and plot each of its songs to its own png (or svg); or,
+   * if the output format is pdf or text, write all of them to a single file
+   */
+  private void generateSongbook() {
+    List<Song> songs = new SongbookParser(mConfig.input()).parse();
+    File outFile = outputFile(mConfig);
     MusicKey key = null;
     if (nonEmpty(mConfig.scale()))
       key = musicKey(mConfig.scale());
+    if (outFile.getName().endsWith(".pdf")) {
+      PdfWriter.writeSongs(songs, key, style(mConfig.style()), outFile);
+      return;
+    }
+    if (outFile.getName().endsWith(".chart")) {
+      TextChartWriter.writeSongs(songs, key, outFile);
+      return;
+    }
+    int songNumber = 0;
+    for (Song song : songs) {
+      songNumber++;
+      plotPages(song, key, style(mConfig.style()), mConfig, numberedFile(outFile, songNumber));
+    }
+  }
+
+  /**
+   * Plot a song in every key and every style, to files named by inserting the
+   * key and style into the output file's name (e.g. song.e-flat.style1.png).
+   * The song is parsed once and laid out once per style (since the layout
+   * doesn't depend upon the key); the variants are then plotted concurrently.
+   * A text chart doesn't depend upon the style, so is written once per key
+   */
+  private void generateFanOut() {
+    File outFile = outputFile(mConfig);
+    List<PackedSection> sections = PackedSection.pack(readSong(mConfig, mConfig.input()));
+    List<String> keyNames = musicKeyNames();
+    if (outFile.getName().endsWith(".chart")) {
+      for (String keyName : keyNames)
+        TextChartWriter.write(sections, musicKey(keyName), fileWithSuffix(outFile, "." + keyName));
+      return;
+    }
 
-    PagePlotter p = new PagePlotter();
-    p.setKey(key);
-    p.plotSong(song, style(mConfig.style()));
+    List<ForkJoinTask<?>> tasks = arrayList();
+    for (int styleIndex = 0; styleIndex < styleCount(); styleIndex++) {
+      Style style = style(styleIndex);
+      // Load the (shared) chord font profiles before any variants are plotted concurrently
+      FontProfile.forPaint(style.paintChord());
+      FontProfile.forPaint(style.paintChordSmall());
+      List<DisplayList> pages = new SongLayout(style).layoutPages(sections, null);
+      for (String keyName : keyNames) {
+        MusicKey key = musicKey(keyName);
+        File variantFile = fileWithSuffix(outFile, "." + keyName + ".style" + styleIndex);
+        tasks.add(ForkJoinPool.commonPool().submit(() -> {
+          List<DisplayList> keyPages = arrayList();
+          for (DisplayList page : pages)
+            keyPages.add(page.withKey(key));
+          writePages(keyPages, mConfig, variantFile);
+        }));
+      }
+    }
+    for (ForkJoinTask<?> task : tasks)
+      task.join();
+  }
 
-    File outFile = mConfig.output();
+  /**
+   * Read a song from a source file, using the song cache if there is one
+   */
+  static Song readSong(SongConfig config, File sourceFile) {
+    if (!Files.empty(config.songCache()))
+      return new SongCache(config.songCache()).get(sourceFile).toSong();
+    return new SongParser(sourceFile).parse();
+  }
+
+  /**
+   * Determine the file to write a (single) song to
+   */
+  static File outputFile(SongConfig config) {
+    File outFile = config.output();
     if (Files.empty(outFile))
-      outFile = mSourceFile;
-    outFile = Files.setExtension(outFile, "png");
-    p.generateOutputFile(outFile);
+      outFile = config.input();
+    return Files.setExtension(outFile, outputExtension(config));
+  }
+
+  /**
+   * Determine the extension of output files, from the configuration's format.
+   * Text charts are written to .chart files, as song sources are .txt files
+   */
+  static String outputExtension(SongConfig config) {
+    String format = ifNullOrEmpty(config.format(), "png");
+    switch (format) {
+    default:
+      throw badArg("Unsupported format:", quote(format));
+    case "png":
+    case "svg":
+    case "pdf":
+      return format;
+    case "text":
+      return "chart";
+    }
+  }
+
+  /**
+   * Write a page to a file, as an svg, pdf or png depending upon its extension
+   *
+   * @param config
+   *          determines the pixel format and compression level, if the page is
+   *          written as a png
+   */
+  static void writePage(DisplayList displayList, SongConfig config, File outFile) {
+    if (outFile.getName().endsWith(".svg")) {
+      SvgWriter.write(displayList, outFile);
+      return;
+    }
+    if (outFile.getName().endsWith(".pdf")) {
+      PdfWriter.write(displayList, outFile);
+      return;
+    }
+    PagePlotter.writeBands(displayList, config.rasterMode(), config.pngCompressionLevel(), outFile);
+  }
+
+  /**
+   * Parse a song source file and plot it to a png
+   */
+  static void renderSong(SongConfig config, File sourceFile, File outFile) {
+    Song song = readSong(config, sourceFile);
+
+    //pr("parsed:",INDENT,song);
+
+    MusicKey key = null;
+    if (nonEmpty(config.scale()))
+      key = musicKey(config.scale());
+
+    plotPages(song, key, style(config.style()), config, outFile);
+  }
+
+  /**
+   * Plot a song to a png. If it doesn't fit on a single page, each page is
+   * written to its own numbered png (song-1.png, song-2.png, ...). Svg pages
+   * are numbered similarly; a pdf holds all of the pages. A text chart isn't
+   * laid out or paginated, but written directly
+   */
+  static void plotPages(Song song, MusicKey key, Style style, SongConfig config, File outFile) {
+    if (outFile.getName().endsWith(".chart")) {
+      TextChartWriter.write(song, key, outFile);
+      return;
+    }
+    writePages(new SongLayout(style).layoutPages(PackedSection.pack(song), key), config, outFile);
+  }
+
+  /**
+   * Write the pages of a song: to a single file if it's a pdf (or if there's
+   * only one page), otherwise to numbered files
+   */
+  static void writePages(List<DisplayList> pages, SongConfig config, File outFile) {
+    if (outFile.getName().endsWith(".pdf")) {
+      try (PdfWriter w = new PdfWriter(new FileOutputStream(outFile))) {
+        w.addPages(pages);
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+      return;
+    }
+
+    // Each png page is itself rendered concurrently, so the pages are written one at a time
+    int pageNumber = 0;
+    for (DisplayList page : pages) {
+      pageNumber++;
+      writePage(page, config, pages.size() == 1 ? outFile : numberedFile(outFile, pageNumber));
+    }
+  }
+
+  /**
+   * Insert a number into a filename, e.g. song.png => song-3.png
+   */
+  private static File numberedFile(File file, int number) {
+    return fileWithSuffix(file, "-" + number);
+  }
+
+  /**
+   * Insert a suffix into a filename, before its extension
+   */
+  private static File fileWithSuffix(File file, String suffix) {
+    String path = file.getPath();
+    int dot = path.lastIndexOf('.');
+    return new File(path.substring(0, dot) + suffix + path.substring(dot));
   }
 
   private SongConfig mConfig;
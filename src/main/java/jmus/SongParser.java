@@ -4,31 +4,119 @@ import static jmus.MusUtil.*;
 import static js.base.Tools.*;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
 
-import jmus.gen.Accidental;
-import jmus.gen.Chord;
-import jmus.gen.ChordType;
 import jmus.gen.MusicSection;
-import jmus.gen.OptType;
 import jmus.gen.SectionType;
 import jmus.gen.Song;
 import js.base.BaseObject;
-import js.file.Files;
-import js.parsing.Scanner;
-import js.parsing.Token;
 
+/**
+ * Parses song source text into a Song.
+ *
+ * A file, Reader or InputStream source is read and tokenized incrementally,
+ * and parse(Consumer) emits each MusicSection as soon as it is complete, so
+ * memory use is bounded by the largest section, not the size of the source.
+ *
+ * Source text that is already in memory is tokenized into a TokenBuffer
+ * instead, which is faster. In either case, no token objects are constructed
+ * and chords are decoded directly from the character buffer
+ */
 public class SongParser extends BaseObject {
 
+  /**
+   * Increment this when a change to the grammar (tokens.rxp) or to the parser
+   * can change the Song produced for some source, to invalidate cached songs
+   */
+  public static final int VERSION = 1;
+
+  /**
+   * Construct a parser for a file, which will be read via a memory-mapped
+   * FileChannel
+   */
   public SongParser(File sourceFile) {
     mSourceFile = sourceFile;
+    mSourceDescription = sourceFile.getName();
+  }
+
+  /**
+   * Construct a parser that reads from a Reader (which the caller is
+   * responsible for closing)
+   */
+  public SongParser(Reader reader, String sourceDescription) {
+    mReader = reader;
+    mSourceDescription = sourceDescription;
   }
 
+  /**
+   * Construct a parser that reads UTF-8 text from an InputStream (which the
+   * caller is responsible for closing)
+   */
+  public SongParser(InputStream inputStream, String sourceDescription) {
+    this(new InputStreamReader(inputStream, StandardCharsets.UTF_8), sourceDescription);
+  }
+
+  /**
+   * Construct a parser for source text held in memory
+   */
+  public SongParser(char[] text, int textLength, String sourceDescription) {
+    this(text, 0, textLength, sourceDescription);
+  }
+
+  /**
+   * Construct a parser for a subrange of some source text held in memory. Error
+   * messages report line numbers relative to the start of the entire text
+   */
+  public SongParser(char[] text, int start, int end, String sourceDescription) {
+    mText = text;
+    mTextStart = start;
+    mTextEnd = end;
+    mSourceDescription = sourceDescription;
+  }
+
+  public SongParser(String text, String sourceDescription) {
+    this(text.toCharArray(), text.length(), sourceDescription);
+  }
+
+  /**
+   * Parse the entire source into a Song
+   */
   public Song parse() {
-    mScanner = new Scanner(dfa(), Files.readString(mSourceFile));
-    mScanner.setSourceDescription(mSourceFile.getName());
-    //mScanner.alertVerbose();
+    Song.Builder song = Song.newBuilder();
+    parse((section) -> song.sections().add(section));
+    return song.build();
+  }
+
+  /**
+   * Parse the source, passing each MusicSection to a consumer as it is
+   * completed
+   */
+  public void parse(Consumer<MusicSection> sectionConsumer) {
+    mSectionConsumer = sectionConsumer;
+    if (mText != null) {
+      parseTokens(new TokenBuffer(mText, mTextStart, mTextEnd, mSourceDescription));
+      return;
+    }
+    if (mReader != null) {
+      parseTokens(new SongLexer(mReader, mSourceDescription));
+      return;
+    }
+    try (Reader reader = new MappedFileReader(mSourceFile)) {
+      parseTokens(new SongLexer(reader, mSourceDescription));
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
 
-    while (mScanner.hasNext()) {
+  private void parseTokens(TokenCursor tokens) {
+    mTokens = tokens;
+
+    while (mTokens.id() >= 0) {
 
       if (consumeBreakTokens())
         continue;
@@ -67,7 +155,9 @@ public class SongParser extends BaseObject {
 
       if (peekIf(T_BEATS)) {
         flushMusicSection();
-        int beats = Integer.parseInt(chompPrefix(mScanner.read().text(), "beats:"));
+        // The token is 'beats:' followed by a single digit
+        int beats = mTokens.chars()[mTokens.start() + mTokens.length() - 1] - '0';
+        mTokens.advance();
         addSection(newSec(SectionType.BEATS).intArg(beats));
         continue;
       }
@@ -77,20 +167,20 @@ public class SongParser extends BaseObject {
       if (readIf(T_PAROP)) {
         int beatNumber = 0;
         while (!readIf(T_PARCL)) {
-          Chord.Builder c = readScalarChord();
-          c.beatNumber(beatNumber);
+          if (beatNumber > PackedChord.MAX_BEAT_NUMBER)
+            throw mTokens.fail("Too many chords in bar");
+          int c = readScalarChord();
+          musicSection().chords().add(PackedChord.toChord(PackedChord.withBeatNumber(c, beatNumber)));
           beatNumber++;
-          musicSection().chords().add(c.build());
         }
       } else {
-        Chord.Builder c = readScalarChord();
-        musicSection().chords().add(c.build());
+        int c = readScalarChord();
+        musicSection().chords().add(PackedChord.toChord(c));
       }
       setRecentPlotElementFlag();
     }
 
     flushMusicSection();
-    return song().build();
   }
 
   /**
@@ -127,8 +217,7 @@ public class SongParser extends BaseObject {
   private void parseText(SectionType type) {
     flushMusicSection();
     processPendingBreak();
-    String s = mScanner.read(T_STRING).text();
-    s = parseStringText(s);
+    String s = readAndParseString();
     addSection(newSec(type).textArg(s));
     setRecentPlotElementFlag();
   }
@@ -141,49 +230,50 @@ public class SongParser extends BaseObject {
     mRecentPlotElement = true;
   }
 
+  /**
+   * Read a STRING token, and return its text without the quotes and with
+   * escape sequences processed
+   */
   private String readAndParseString() {
-    String s = mScanner.read(T_STRING).text();
-    return parseStringText(s);
-  }
-
-  private String parseStringText(String s) {
-    s = s.substring(1, s.length() - 1);
-    StringBuilder sb = new StringBuilder();
-    for (int i = 0; i < s.length(); i++) {
-      char c = s.charAt(i);
+    if (mTokens.id() != T_STRING)
+      throw mTokens.fail("expected", SongLexer.tokenName(T_STRING));
+    char[] chars = mTokens.chars();
+    int start = mTokens.start() + 1;
+    int end = mTokens.start() + mTokens.length() - 1;
+    StringBuilder sb = new StringBuilder(end - start);
+    for (int i = start; i < end; i++) {
+      char c = chars[i];
       if (c == '\\') {
         i++;
-        c = s.charAt(i);
+        c = chars[i];
       }
       sb.append(c);
     }
+    mTokens.advance();
     return sb.toString();
   }
 
-  private Chord.Builder readScalarChord() {
-
-    Chord.Builder c = parseChord();
-
-    if (readIf(T_FWD_SLASH)) {
-      Chord.Builder auxChord = parseChord();
-      c.slashChord(auxChord);
-    }
+  /**
+   * Read a chord, and an optional slash chord
+   * 
+   * @return PackedChord code
+   */
+  private int readScalarChord() {
+    int c = parseChord();
+    if (readIf(T_FWD_SLASH))
+      c = PackedChord.withSlash(c, parseChord());
     return c;
   }
 
   private boolean readIf(int tokenId) {
-    return null != mScanner.readIf(tokenId);
+    if (mTokens.id() != tokenId)
+      return false;
+    mTokens.advance();
+    return true;
   }
 
   private boolean peekIf(int tokenId) {
-    return mScanner.hasNext() && mScanner.peek().id(tokenId);
-  }
-
-  private Song.Builder song() {
-    if (mSongBuilder == null) {
-      mSongBuilder = Song.newBuilder();
-    }
-    return mSongBuilder;
+    return mTokens.id() == tokenId;
   }
 
   private boolean hasCurrentMusicSection() {
@@ -198,7 +288,7 @@ public class SongParser extends BaseObject {
   }
 
   private void addSection(MusicSection section) {
-    song().sections().add(section.build());
+    mSectionConsumer.accept(section.build());
   }
 
   /**
@@ -222,76 +312,36 @@ public class SongParser extends BaseObject {
     return mMusicSectionBuilder;
   }
 
-  private Chord.Builder parseChord() {
+  /**
+   * Read a chord (or beat placeholder)
+   * 
+   * @return PackedChord scalar code
+   */
+  private int parseChord() {
     if (readIf(T_PERIOD))
-      return Chord.newBuilder().type(ChordType.BEAT);
-
-    Token t = mScanner.read(T_CHORD);
-    try {
-
-      Chord.Builder b = Chord.newBuilder();
-      String s = t.text();
-      int k = 0;
-      char c;
-
-      c = s.charAt(k);
-      if (c == 'b' || c == '#') {
-        b.accidental(c == 'b' ? Accidental.FLAT : Accidental.SHARP);
-        k++;
-      }
-
-      c = s.charAt(k++);
-      int num = 1 + (c - '1');
-      checkArgument(num >= 1 && num <= 7);
-      b.number(num);
-
-      while (k < s.length()) {
-        c = s.charAt(k++);
-        switch (c) {
-        default:
-          throw badArg("unsupported character:", Character.toString(c));
-        case '-':
-          b.type(ChordType.MINOR);
-          break;
-        case '\'':
-          b.type(ChordType.DIMINISHED);
-          break;
-        case '+':
-          b.type(ChordType.AUGMENTED);
-          break;
-        case '2':
-          b.optType(OptType.TWO);
-          break;
-        case '4':
-          b.optType(OptType.FOUR);
-          break;
-        case '5':
-          b.optType(OptType.FIVE);
-          break;
-        case '6':
-          b.optType(OptType.SIX);
-          break;
-        case '7':
-          b.optType(OptType.SEVEN);
-          break;
-        case '9':
-          b.optType(OptType.NINE);
-          break;
-        }
-      }
-      return b;
-    } catch (Throwable th) {
-      throw t.fail("Trouble parsing chord");
-    }
+      return PackedChord.BEAT;
+
+    if (mTokens.id() != T_CHORD)
+      throw mTokens.fail("expected", SongLexer.tokenName(T_CHORD));
+    int code = PackedChord.parse(mTokens.chars(), mTokens.start(), mTokens.length());
+    if (code < 0)
+      throw mTokens.fail("Trouble parsing chord");
+    mTokens.advance();
+    return code;
   }
 
   private static final MusicSection LINE_BREAK = newSec(SectionType.LINE_BREAK).build();
   private static final MusicSection PARAGRAPH_BREAK = newSec(SectionType.PARAGRAPH_BREAK).build();
 
   private File mSourceFile;
-
-  private Scanner mScanner;
-  private Song.Builder mSongBuilder;
+  private Reader mReader;
+  private char[] mText;
+  private int mTextStart;
+  private int mTextEnd;
+  private final String mSourceDescription;
+
+  private TokenCursor mTokens;
+  private Consumer<MusicSection> mSectionConsumer;
   private MusicSection.Builder mMusicSectionBuilder;
 
   // 0: none 1: line 2: paragraph
@@ -0,0 +1,88 @@
+package jmus;
+
+import static jmus.MusUtil.*;
+import static js.base.Tools.*;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import jmus.gen.Song;
+import js.data.IntArray;
+import js.file.Files;
+
+/**
+ * Parses a songbook: a single source containing many songs, each starting with
+ * a 'title' token.
+ *
+ * The source is first scanned (sequentially) for the title boundaries, then
+ * the songs are parsed concurrently on a fork/join pool
+ */
+public final class SongbookParser {
+
+  public SongbookParser(File sourceFile) {
+    this(Files.readString(sourceFile).toCharArray(), sourceFile.getName());
+  }
+
+  public SongbookParser(char[] text, String sourceDescription) {
+    mText = text;
+    mSourceDescription = sourceDescription;
+  }
+
+  /**
+   * Parse the songs, returning them in source order
+   */
+  public List<Song> parse() {
+    int[] offsets = songOffsets();
+    List<ForkJoinTask<Song>> tasks = arrayList();
+    ForkJoinPool pool = ForkJoinPool.commonPool();
+    for (int i = 0; i < offsets.length; i++) {
+      int start = offsets[i];
+      int end = (i + 1 < offsets.length) ? offsets[i + 1] : mText.length;
+      tasks.add(pool.submit(() -> new SongParser(mText, start, end, mSourceDescription).parse()));
+    }
+    List<Song> songs = arrayList();
+    for (ForkJoinTask<Song> task : tasks)
+      songs.add(task.join());
+    return songs;
+  }
+
+  /**
+   * Find the offsets of the start of each song. Any text before the first
+   * title is included with the first song.
+   *
+   * If some text isn't a valid token, the scan resumes at the start of the
+   * following line. As no token other than a block comment spans lines, this
+   * never resumes within a token (e.g., within an unterminated string that
+   * contains the word 'title'). The song containing the text reports the
+   * problem when it is parsed
+   */
+  public int[] songOffsets() {
+    IntArray.Builder offsets = IntArray.newBuilder();
+    offsets.add(0);
+    boolean titleFound = false;
+    int end = mText.length;
+    int position = 0;
+    while (position < end) {
+      long match = TokenBuffer.matchToken(mText, position, end);
+      // Leave reporting of any problem to the parsing of the song containing it
+      if (match < 0) {
+        while (position < end && mText[position] != '\n')
+          position++;
+        position++;
+        continue;
+      }
+      if ((int) (match >> 32) == T_TITLE) {
+        if (titleFound)
+          offsets.add(position);
+        titleFound = true;
+      }
+      position += (int) match;
+    }
+    return offsets.array();
+  }
+
+  private final char[] mText;
+  private final String mSourceDescription;
+}
@@ -0,0 +1,299 @@
+package jmus;
+
+import static jmus.MusUtil.*;
+import static js.base.Tools.*;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.Stroke;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import jmus.gen.ChordType;
+import jmus.gen.Style;
+import js.graphics.Paint;
+
+/**
+ * Writes a page, described by a DisplayList, as an SVG document.
+ *
+ * Paints become CSS classes within a single style element, and each distinct
+ * chord label is defined once (with each character positioned as PagePlotter
+ * would draw it) and placed with use elements. Nothing is rasterized.
+ *
+ * The elements are written in a single pass as the display list is read; the
+ * style and label definitions they refer to are written after them
+ */
+public final class SvgWriter {
+
+  public SvgWriter(OutputStream outputStream) {
+    mWriter = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Write a display list to an SVG file
+   */
+  public static void write(DisplayList displayList, File file) {
+    try (OutputStream out = new FileOutputStream(file)) {
+      new SvgWriter(out).write(displayList);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Write a display list as a (complete) SVG document; flushes, but doesn't
+   * close, the output stream
+   */
+  public void write(DisplayList displayList) {
+    mStyle = displayList.style();
+    mClasses.clear();
+    mClassDeclarations.clear();
+    mTextClasses.clear();
+    mFillClasses.clear();
+    mStrokeClasses.clear();
+    Arrays.fill(mChordClasses, null);
+    mLabelIds.clear();
+    mLabelDefinitions.clear();
+    try {
+      w("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+      w("<svg xmlns=\"http://www.w3.org/2000/svg\" xmlns:xlink=\"http://www.w3.org/1999/xlink\"");
+      w(" width=\"").w(Float.toString(PAGE_SIZE.x / (float) PIXELS_PER_INCH)).w("in\"");
+      w(" height=\"").w(Float.toString(PAGE_SIZE.y / (float) PIXELS_PER_INCH)).w("in\"");
+      w(" viewBox=\"0 0 ").w(PAGE_SIZE.x).w(" ").w(PAGE_SIZE.y).w("\">\n");
+      w("<rect width=\"100%\" height=\"100%\" fill=\"white\"/>\n");
+      writeElements(displayList);
+      w("<defs>\n");
+      for (String definition : mLabelDefinitions)
+        w(definition);
+      w("</defs>\n");
+      w("<style>\n");
+      for (int i = 0; i < mClassDeclarations.size(); i++)
+        w(".c").w(i).w(" { ").w(mClassDeclarations.get(i)).w(" }\n");
+      w("</style>\n");
+      w("</svg>\n");
+      mWriter.flush();
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private void writeElements(DisplayList d) throws IOException {
+    for (int i = 0; i < d.size(); i++) {
+      int x = d.x(i);
+      int y = d.y(i);
+      switch (d.op(i)) {
+      default:
+        throw notSupported("display list operation:", d.op(i));
+      case DisplayList.OP_BAR:
+        writeRect(strokeClass(mStyle.paintBarFrame()), x, y, d.arg0(i), d.arg1(i));
+        break;
+      case DisplayList.OP_CHORD:
+        writeChord(d.arg0(i), ChordLabels.forKey(d.key(i)), x, y);
+        break;
+      case DisplayList.OP_TEXT:
+        writeText(SongLayout.textPaint(mStyle, d.textType(i)), d.text(i), x, y);
+        break;
+      case DisplayList.OP_STRING:
+        writeText(d.paint(i), d.text(i), x, y);
+        break;
+      case DisplayList.OP_FILL:
+        writeRect(fillClass(d.paint(i)), x, y, d.arg0(i), d.arg1(i));
+        break;
+      case DisplayList.OP_LINE:
+        w("<line class=\"").w(strokeClass(d.paint(i))).w("\" x1=\"").w(x).w("\" y1=\"").w(y).w("\" x2=\"")
+            .w(d.arg0(i)).w("\" y2=\"").w(d.arg1(i)).w("\"/>\n");
+        break;
+      }
+    }
+  }
+
+  private void writeRect(String cssClass, int x, int y, int width, int height) throws IOException {
+    w("<rect class=\"").w(cssClass).w("\" x=\"").w(x).w("\" y=\"").w(y).w("\" width=\"").w(width)
+        .w("\" height=\"").w(height).w("\"/>\n");
+  }
+
+  /**
+   * Write a chord, positioned as PagePlotter.plotChord() would draw it
+   */
+  private void writeChord(int chord, ChordLabels labels, int x, int y) throws IOException {
+    Style style = mStyle;
+    int yAdjust = 0;
+    boolean slash = PackedChord.hasSlash(chord);
+    if (slash)
+      yAdjust = style.slashChordAdjustY();
+    // Chords are drawn in one of four fonts and colors; look up their classes once
+    int fontIndex = (slash ? 2 : 0) + (PackedChord.type(chord) == ChordType.BEAT ? 1 : 0);
+    String textClass = mChordClasses[fontIndex];
+    if (textClass == null) {
+      (slash ? style.paintChordSmall() : style.paintChord()).apply(mGraphics);
+      if ((fontIndex & 1) != 0)
+        mGraphics.setColor(PagePlotter.BAR_COLOR);
+      textClass = textClass(mGraphics.getFont(), mGraphics.getColor());
+      mChordClasses[fontIndex] = textClass;
+      mChordProfiles[fontIndex] = FontProfile.forFont(mGraphics.getFont());
+    }
+    FontProfile f = mChordProfiles[fontIndex];
+
+    String mainText = labels.label(chord & PackedChord.SCALAR_MASK);
+    int x0 = x + labels.xOffset(chord, style);
+    int py = y + yAdjust;
+
+    writeLabel(textClass, f, mainText, x0, py);
+    if (slash) {
+      w("<text class=\"").w(textClass).w("\" x=\"").w(x0).w("\" y=\"").w(py + style.dashOffset())
+          .w("\">_</text>\n");
+      writeLabel(textClass, f, labels.label(PackedChord.slash(chord)), x0,
+          py + f.height() + style.dashHeight());
+    }
+  }
+
+  private void writeLabel(String textClass, FontProfile f, String label, int x, int y) throws IOException {
+    Map<String, Integer> ids = mLabelIds.get(textClass);
+    if (ids == null) {
+      ids = hashMap();
+      mLabelIds.put(textClass, ids);
+    }
+    Integer id = ids.get(label);
+    if (id == null) {
+      id = mLabelDefinitions.size();
+      ids.put(label, id);
+      int[] charPositions = f.charPositions(label, null);
+      StringBuilder sb = new StringBuilder();
+      sb.append("<text id=\"l").append(id).append("\" class=\"").append(textClass).append("\" x=\"");
+      for (int i = 0; i < label.length(); i++) {
+        if (i != 0)
+          sb.append(' ');
+        sb.append(charPositions[i]);
+      }
+      sb.append("\" y=\"").append(f.ascent()).append("\">").append(escape(label)).append("</text>\n");
+      mLabelDefinitions.add(sb.toString());
+    }
+    w("<use xlink:href=\"#l").w(id).w("\" x=\"").w(x).w("\" y=\"").w(y).w("\"/>\n");
+  }
+
+  private void writeText(Paint paint, String text, int x, int y) throws IOException {
+    String textClass = mTextClasses.get(paint);
+    if (textClass == null) {
+      paint.apply(mGraphics);
+      textClass = textClass(mGraphics.getFont(), mGraphics.getColor());
+      mTextClasses.put(paint, textClass);
+    }
+    w("<text class=\"").w(textClass).w("\" x=\"").w(x).w("\" y=\"").w(y).w("\">").w(escape(text))
+        .w("</text>\n");
+  }
+
+  private String textClass(Font font, Color color) {
+    StringBuilder sb = new StringBuilder();
+    sb.append("font-family: '").append(font.getName()).append("'; font-size: ")
+        .append(font.getSize2D()).append("px;");
+    if (font.isBold())
+      sb.append(" font-weight: bold;");
+    if (font.isItalic())
+      sb.append(" font-style: italic;");
+    sb.append(" fill: ").append(cssColor(color)).append(";");
+    return cssClass(sb.toString());
+  }
+
+  private String fillClass(Paint paint) {
+    String name = mFillClasses.get(paint);
+    if (name == null) {
+      paint.apply(mGraphics);
+      name = cssClass("fill: " + cssColor(mGraphics.getColor()) + ";");
+      mFillClasses.put(paint, name);
+    }
+    return name;
+  }
+
+  private String strokeClass(Paint paint) {
+    String name = mStrokeClasses.get(paint);
+    if (name == null) {
+      paint.apply(mGraphics);
+      float width = 1;
+      Stroke stroke = mGraphics.getStroke();
+      if (stroke instanceof BasicStroke)
+        width = ((BasicStroke) stroke).getLineWidth();
+      name = cssClass(
+          "fill: none; stroke: " + cssColor(mGraphics.getColor()) + "; stroke-width: " + width + ";");
+      mStrokeClasses.put(paint, name);
+    }
+    return name;
+  }
+
+  /**
+   * Get the name of the class with a particular declaration, adding it if
+   * necessary
+   */
+  private String cssClass(String declaration) {
+    String name = mClasses.get(declaration);
+    if (name == null) {
+      name = "c" + mClassDeclarations.size();
+      mClasses.put(declaration, name);
+      mClassDeclarations.add(declaration);
+    }
+    return name;
+  }
+
+  private static String cssColor(Color c) {
+    return String.format("#%02x%02x%02x", c.getRed(), c.getGreen(), c.getBlue());
+  }
+
+  private static String escape(String text) {
+    StringBuilder sb = new StringBuilder(text.length());
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      switch (c) {
+      default:
+        sb.append(c);
+        break;
+      case '&':
+        sb.append("&amp;");
+        break;
+      case '<':
+        sb.append("&lt;");
+        break;
+      case '>':
+        sb.append("&gt;");
+        break;
+      case '"':
+        sb.append("&quot;");
+        break;
+      }
+    }
+    return sb.toString();
+  }
+
+  private SvgWriter w(String text) throws IOException {
+    mWriter.write(text);
+    return this;
+  }
+
+  private SvgWriter w(int value) throws IOException {
+    mWriter.write(Integer.toString(value));
+    return this;
+  }
+
+  private final Writer mWriter;
+  private final Graphics2D mGraphics = SongLayout.scratchGraphics();
+  private final Map<String, String> mClasses = hashMap();
+  private final List<String> mClassDeclarations = arrayList();
+  private final Map<Paint, String> mTextClasses = hashMap();
+  private final Map<Paint, String> mFillClasses = hashMap();
+  private final Map<Paint, String> mStrokeClasses = hashMap();
+  private final String[] mChordClasses = new String[4];
+  private final FontProfile[] mChordProfiles = new FontProfile[4];
+  // Label ids, by class and then by label
+  private final Map<String, Map<String, Integer>> mLabelIds = hashMap();
+  private final List<String> mLabelDefinitions = arrayList();
+  private Style mStyle;
+}
@@ -0,0 +1,224 @@
+package jmus;
+
+import static jmus.MusUtil.*;
+import static js.base.Tools.*;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import jmus.gen.MusicKey;
+import jmus.gen.SectionType;
+import jmus.gen.Song;
+
+/**
+ * Writes songs as plain text chord charts, for a monospaced font.
+ *
+ * Each chord occupies a column (wide enough for the longest label in the
+ * song), and bars are padded with beat placeholders (as they are when
+ * plotted), so bars line up from one line of the chart to the next. Titles
+ * are underlined, and text sections (e.g. "Chorus") precede the chords that
+ * follow them on a line.
+ *
+ * Lines are written as they are completed, so the chart is never held in
+ * memory
+ */
+public final class TextChartWriter {
+
+  public TextChartWriter(Writer writer) {
+    mWriter = writer;
+  }
+
+  /**
+   * Write a song's chart to a file
+   *
+   * @param key
+   *          key to write the chords in; if null, they are written as
+   *          Nashville numbers
+   */
+  public static void write(Song song, MusicKey key, File file) {
+    write(PackedSection.pack(song), key, file);
+  }
+
+  /**
+   * Write the chart of a song, held as packed sections, to a file
+   */
+  public static void write(List<PackedSection> sections, MusicKey key, File file) {
+    try (Writer w = openWriter(file)) {
+      new TextChartWriter(w).write(sections, key);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Write several songs' charts to a single file, separated by blank lines
+   */
+  public static void writeSongs(Iterable<Song> songs, MusicKey key, File file) {
+    try (Writer w = openWriter(file)) {
+      TextChartWriter chartWriter = new TextChartWriter(w);
+      for (Song song : songs)
+        chartWriter.write(PackedSection.pack(song), key);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static Writer openWriter(File file) throws IOException {
+    return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Write a song's chart; if this isn't the first song written, it is
+   * preceded by a blank line. Flushes, but doesn't close, the writer
+   */
+  public void write(List<PackedSection> sections, MusicKey key) {
+    mLabels = ChordLabels.forKey(key);
+    mColumnWidth = columnWidth(sections, key);
+    mBeatsPerBar = 0;
+    mLine.setLength(0);
+    mBlankLinePending = mLinesWritten != 0;
+    try {
+      for (PackedSection section : sections) {
+        switch (section.type()) {
+        default:
+          throw notSupported("unsupported section type:", section);
+        case BEATS:
+          mBeatsPerBar = section.intArg();
+          break;
+        case KEY:
+          mLabels = ChordLabels.forKey(musicKey(section.textArg()));
+          break;
+        case LINE_BREAK:
+          endLine();
+          break;
+        case PARAGRAPH_BREAK:
+          endLine();
+          if (mLinesWritten != 0)
+            mBlankLinePending = true;
+          break;
+        case TITLE: {
+          endLine();
+          String title = section.textArg();
+          mLine.append(title);
+          endLine();
+          for (int i = 0; i < title.length(); i++)
+            mLine.append('=');
+          endLine();
+        }
+          break;
+        case SUBTITLE:
+          endLine();
+          mLine.append(section.textArg());
+          endLine();
+          break;
+        case TEXT:
+        case SMALL_TEXT:
+          separate();
+          mLine.append(section.textArg());
+          break;
+        case CHORD_SEQUENCE:
+          appendChords(section.codes());
+          break;
+        }
+      }
+      endLine();
+      mWriter.flush();
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Determine the width of the columns holding a song's chords, so that the
+   * longest label the song uses (in any of its keys) is followed by a space
+   */
+  private static int columnWidth(List<PackedSection> sections, MusicKey key) {
+    ChordLabels labels = ChordLabels.forKey(key);
+    int longest = 0;
+    for (PackedSection section : sections) {
+      if (section.type() == SectionType.KEY)
+        labels = ChordLabels.forKey(musicKey(section.textArg()));
+      else if (section.type() == SectionType.CHORD_SEQUENCE) {
+        for (int code : section.codes())
+          longest = Math.max(longest, labels.label(code).length());
+      }
+    }
+    return Math.max(MIN_COLUMN_WIDTH, longest + 1);
+  }
+
+  /**
+   * Append a sequence of chords to the line, as bars; each bar is padded with
+   * beat placeholders if necessary, as in SongLayout
+   */
+  private void appendChords(int[] codes) {
+    if (codes.length == 0)
+      return;
+    separate();
+    for (int barStart = 0; barStart < codes.length;) {
+      int barEnd = PackedChord.barEnd(codes, barStart);
+      int chordCount = Math.max(barEnd - barStart, mBeatsPerBar);
+      mLine.append("| ");
+      for (int j = 0; j < chordCount; j++) {
+        int k = barStart + j;
+        String label = mLabels.label((k < barEnd) ? codes[k] : PackedChord.BEAT);
+        mLine.append(label);
+        for (int p = label.length(); p < mColumnWidth; p++)
+          mLine.append(' ');
+      }
+      barStart = barEnd;
+    }
+    mLine.append('|');
+  }
+
+  /**
+   * Separate the next item on the line from the previous one (if any)
+   */
+  private void separate() {
+    int length = mLine.length();
+    if (length != 0 && mLine.charAt(length - 1) != ' ')
+      mLine.append(' ');
+  }
+
+  /**
+   * Write the line (without trailing spaces), if it isn't empty, and start a
+   * new one
+   */
+  private void endLine() throws IOException {
+    int length = mLine.length();
+    while (length > 0 && mLine.charAt(length - 1) == ' ')
+      length--;
+    if (length == 0) {
+      mLine.setLength(0);
+      return;
+    }
+    if (mBlankLinePending) {
+      mWriter.write('\n');
+      mBlankLinePending = false;
+    }
+    if (mChars.length < length)
+      mChars = new char[length * 2];
+    mLine.getChars(0, length, mChars, 0);
+    mWriter.write(mChars, 0, length);
+    mWriter.write('\n');
+    mLine.setLength(0);
+    mLinesWritten++;
+  }
+
+  // Minimum width of each chord's column, in characters
+  private static final int MIN_COLUMN_WIDTH = 6;
+
+  private final Writer mWriter;
+  private final StringBuilder mLine = new StringBuilder();
+  private char[] mChars = new char[128];
+  private ChordLabels mLabels;
+  private int mColumnWidth;
+  private int mBeatsPerBar;
+  private boolean mBlankLinePending;
+  private int mLinesWritten;
+}
@@ -5,6 +5,7 @@ import java.awt.Font;
 import java.awt.FontMetrics;
 import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
+import java.util.Arrays;
 
 import js.file.Files;
 import js.geometry.IPoint;
@@ -70,6 +71,8 @@ public final class TextUtil {
       }
     }
     IRect bounds = new IRect(xMin - plotOriginX, yMin - plotOriginY, xMax - xMin, yMax - yMin);
+    if (!sDrawDebugBounds)
+      return bounds;
 
     // Render the predicted and actual bounds of the character,
     // and then the character itself so it is always in the foreground
@@ -87,7 +90,109 @@ public final class TextUtil {
     return bounds;
   }
 
+  /**
+   * Specify whether calcCharacterBounds() draws the predicted and actual
+   * bounds of each character onto its canvas, for inspection
+   */
+  public static void setDrawDebugBounds(boolean flag) {
+    sDrawDebugBounds = flag;
+  }
+
+  private static boolean sDrawDebugBounds;
+
+  /**
+   * Determine the bounds of each character of an alphabet, as
+   * calcCharacterBounds() would, but by drawing all of them into a single grid
+   * and scanning it once. Characters that draw no pixels have null bounds
+   */
+  public static IRect[] calcCharacterBounds(Font font, String alphabet) {
+    int count = alphabet.length();
+    IRect[] result = new IRect[count];
+    if (count == 0)
+      return result;
+
+    BufferedImage probe = new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB);
+    Graphics2D pg = probe.createGraphics();
+    FontMetrics fontMetrics = pg.getFontMetrics(font);
+    pg.dispose();
+    char[] chars = alphabet.toCharArray();
+    int[] charWidths = new int[count];
+    int maxWidth = 0;
+    for (int i = 0; i < count; i++) {
+      charWidths[i] = fontMetrics.charWidth(chars[i]);
+      maxWidth = Math.max(maxWidth, charWidths[i]);
+    }
+
+    // Each cell contains the region that calcCharacterBounds() would scan, with the character
+    // plotted at the same position within it; plus a gutter, so any parts of the character
+    // outside that region (which are ignored) can't reach a neighboring cell's region
+    int ascent = fontMetrics.getAscent();
+    int gutter = 2 * font.getSize();
+    int scanHeight = CANVAS_PAD_PIXELS + ascent + CANVAS_PAD_PIXELS;
+    int cellWidth = CANVAS_PAD_PIXELS + maxWidth + CANVAS_PAD_PIXELS + gutter;
+    int cellHeight = scanHeight + gutter;
+    int columns = (int) Math.ceil(Math.sqrt(count));
+    int rows = (count + columns - 1) / columns;
+
+    BufferedImage image = new BufferedImage(columns * cellWidth, rows * cellHeight,
+        BufferedImage.TYPE_INT_RGB);
+    Graphics2D g = image.createGraphics();
+    g.setBackground(Color.white);
+    g.clearRect(0, 0, image.getWidth(), image.getHeight());
+    g.setColor(Color.black);
+    g.setFont(font);
+    for (int i = 0; i < count; i++)
+      g.drawChars(chars, i, 1, (i % columns) * cellWidth + CANVAS_PAD_PIXELS,
+          (i / columns) * cellHeight + CANVAS_PAD_PIXELS + ascent);
+    g.dispose();
+
+    int[] xMin = new int[count];
+    int[] xMax = new int[count];
+    int[] yMin = new int[count];
+    int[] yMax = new int[count];
+    Arrays.fill(xMin, Integer.MAX_VALUE);
+    Arrays.fill(yMin, Integer.MAX_VALUE);
+    Arrays.fill(xMax, -1);
+    Arrays.fill(yMax, -1);
+
+    int[] imagePixels = ImgUtil.rgbPixels(image);
+    int imageWidth = image.getWidth();
+    // The last pixel is in the gutter of the last cell, so is never drawn in
+    int background = imagePixels[imagePixels.length - 1];
+    for (int row = 0; row < rows; row++) {
+      for (int y = 0; y < scanHeight; y++) {
+        int scanIndex = (row * cellHeight + y) * imageWidth;
+        for (int column = 0; column < columns; column++) {
+          int i = row * columns + column;
+          if (i >= count)
+            break;
+          int cellX = column * cellWidth;
+          int xEnd = CANVAS_PAD_PIXELS + charWidths[i] + CANVAS_PAD_PIXELS;
+          for (int x = 0; x < xEnd; x++) {
+            if (imagePixels[scanIndex + cellX + x] == background)
+              continue;
+            if (x < xMin[i])
+              xMin[i] = x;
+            if (x > xMax[i])
+              xMax[i] = x;
+            if (y < yMin[i])
+              yMin[i] = y;
+            if (y > yMax[i])
+              yMax[i] = y;
+          }
+        }
+      }
+    }
+
+    for (int i = 0; i < count; i++)
+      if (xMax[i] >= 0)
+        result[i] = new IRect(xMin[i] - CANVAS_PAD_PIXELS, yMin[i] - CANVAS_PAD_PIXELS - ascent,
+            xMax[i] - xMin[i], yMax[i] - yMin[i]);
+    return result;
+  }
+
   public static void experiment2() {
+    setDrawDebugBounds(true);
     Font font = style(0).paintChord().font();
     BufferedImage canvas = constructCanvasImage();
     Graphics2D g = canvas.createGraphics();
@@ -0,0 +1,202 @@
+package jmus;
+
+import static js.base.Tools.*;
+
+import java.util.Arrays;
+
+/**
+ * Song source text, held in memory, tokenized into parallel arrays of token
+ * ids, start offsets and lengths (whitespace and comments are omitted).
+ *
+ * It also acts as a cursor over those tokens
+ */
+public final class TokenBuffer implements TokenCursor {
+
+  public TokenBuffer(String text, String sourceDescription) {
+    this(text.toCharArray(), text.length(), sourceDescription);
+  }
+
+  public TokenBuffer(char[] text, int textLength, String sourceDescription) {
+    this(text, 0, textLength, sourceDescription);
+  }
+
+  /**
+   * Tokenize a subrange of some text. Token offsets (and line numbers) are
+   * relative to the start of the entire text
+   */
+  public TokenBuffer(char[] text, int start, int end, String sourceDescription) {
+    mText = text;
+    mTextStart = start;
+    mTextEnd = end;
+    mSourceDescription = sourceDescription;
+    int capacity = 16 + (end - start) / 3;
+    mIds = new int[capacity];
+    mStarts = new int[capacity];
+    mLengths = new int[capacity];
+    tokenize();
+  }
+
+  /**
+   * Get the number of tokens
+   */
+  public int size() {
+    return mSize;
+  }
+
+  public int id(int index) {
+    return mIds[index];
+  }
+
+  public int start(int index) {
+    return mStarts[index];
+  }
+
+  public int length(int index) {
+    return mLengths[index];
+  }
+
+  /**
+   * Get the text of a token (as a new String)
+   */
+  public String text(int index) {
+    return new String(mText, mStarts[index], mLengths[index]);
+  }
+
+  /**
+   * Get the line number (1 = first line) containing a text offset
+   */
+  public int lineNumber(int offset) {
+    int line = 1;
+    for (int i = 0; i < offset; i++)
+      if (mText[i] == '\n')
+        line++;
+    return line;
+  }
+
+  /**
+   * Get the index of the cursor's current token
+   */
+  public int position() {
+    return mPosition;
+  }
+
+  public void setPosition(int index) {
+    mPosition = index;
+  }
+
+  // ------------------------------------------------------------------
+  // TokenCursor interface
+  // ------------------------------------------------------------------
+
+  @Override
+  public int id() {
+    return mPosition < mSize ? mIds[mPosition] : -1;
+  }
+
+  @Override
+  public void advance() {
+    if (mPosition >= mSize)
+      throw failAtOffset(mTextEnd, "unexpected end of input");
+    mPosition++;
+  }
+
+  @Override
+  public char[] chars() {
+    return mText;
+  }
+
+  @Override
+  public int start() {
+    return mStarts[mPosition];
+  }
+
+  @Override
+  public int length() {
+    return mLengths[mPosition];
+  }
+
+  @Override
+  public RuntimeException fail(Object... messages) {
+    if (mPosition >= mSize)
+      return failAtOffset(mTextEnd, SongLexer.join(messages), "(at end of input)");
+    return failAtOffset(mStarts[mPosition], SongLexer.join(messages), "token:",
+        SongLexer.tokenName(mIds[mPosition]), quote(text(mPosition)));
+  }
+
+  private RuntimeException failAtOffset(int offset, Object... messages) {
+    int lineStart = offset;
+    while (lineStart > 0 && mText[lineStart - 1] != '\n')
+      lineStart--;
+    int column = 1 + offset - lineStart;
+    return badArg(mSourceDescription + "(" + lineNumber(offset) + ":" + column + ")",
+        SongLexer.join(messages));
+  }
+
+  /**
+   * Find the longest token starting at a position within some text
+   * 
+   * @return (token id << 32) | token length, or -1 if no token was found
+   */
+  public static long matchToken(char[] text, int position, int end) {
+    int state = 0;
+    int length = 0;
+    int acceptId = -1;
+    int acceptLength = 0;
+    while (true) {
+      int tokenId = TokenTables.ACCEPT[state];
+      if (tokenId >= 0) {
+        acceptId = tokenId;
+        acceptLength = length;
+      }
+      if (position + length == end)
+        break;
+      state = TokenTables.transition(state, text[position + length]);
+      if (state < 0)
+        break;
+      length++;
+    }
+    if (acceptId < 0)
+      return -1;
+    return (((long) acceptId) << 32) | acceptLength;
+  }
+
+  private void tokenize() {
+    char[] text = mText;
+    int end = mTextEnd;
+    int position = mTextStart;
+    while (position < end) {
+      long match = matchToken(text, position, end);
+      if (match < 0)
+        throw failAtOffset(position, "unrecognized input:",
+            quote(new String(text, position, Math.min(8, end - position))));
+      int tokenId = (int) (match >> 32);
+      int length = (int) match;
+      if (tokenId != MusUtil.T_WS)
+        add(tokenId, position, length);
+      position += length;
+    }
+  }
+
+  private void add(int id, int start, int length) {
+    if (mSize == mIds.length) {
+      int capacity = mSize * 2;
+      mIds = Arrays.copyOf(mIds, capacity);
+      mStarts = Arrays.copyOf(mStarts, capacity);
+      mLengths = Arrays.copyOf(mLengths, capacity);
+    }
+    mIds[mSize] = id;
+    mStarts[mSize] = start;
+    mLengths[mSize] = length;
+    mSize++;
+  }
+
+  private final char[] mText;
+  private final int mTextStart;
+  private final int mTextEnd;
+  private final String mSourceDescription;
+  private int[] mIds;
+  private int[] mStarts;
+  private int[] mLengths;
+  private int mSize;
+  private int mPosition;
+}
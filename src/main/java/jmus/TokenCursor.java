@@ -0,0 +1,39 @@
+package jmus;
+
+/**
+ * Sequential access to the (non-whitespace) tokens of song source text,
+ * without constructing a token object for each
+ */
+interface TokenCursor {
+
+  /**
+   * Get the id of the current token, or -1 if at end of input
+   */
+  int id();
+
+  /**
+   * Move to the next token
+   */
+  void advance();
+
+  /**
+   * Get the buffer containing the current token's text; this is only valid
+   * until the next call to advance()
+   */
+  char[] chars();
+
+  /**
+   * Get the offset of the current token's text within chars()
+   */
+  int start();
+
+  /**
+   * Get the length of the current token's text
+   */
+  int length();
+
+  /**
+   * Construct an exception describing a problem with the current token
+   */
+  RuntimeException fail(Object... messages);
+}
@@ -0,0 +1,370 @@
+// Generated by LexerGenerator from tokens.dfa (DO NOT EDIT)
+package jmus;
+
+/**
+ * DFA for song tokens, compiled from tokens.rxp
+ */
+final class TokenTables {
+
+  private TokenTables() {
+  }
+
+  static final String[] TOKEN_NAMES = { "WS", "CR", "STRING", "CHORD", "FWD_SLASH", "PAROP", "PARCL", "PERIOD", "TITLE", "SUBTITLE", "TEXT", "SMALLTEXT", "BEATS", "KEY", "BWD_SLASH" };
+
+  // Id of token accepted by each state, or -1
+  static final int[] ACCEPT = {
+      -1, 0, -1, 1, -1, -1, 2, 2, -1, -1, -1, 2, 5, 6, 7, 4, -1, -1, 0, 0,
+      0, 14, -1, -1, -1, -1, -1, -1, 12, -1, -1, -1, 13, -1, -1, -1, -1, -1, -1, -1,
+      -1, 11, -1, -1, -1, -1, -1, -1, 9, -1, -1, -1, 10, -1, -1, -1, 8, 3, 3, 3 };
+
+  /**
+   * Get the state reached from a state via a character, or -1 if there is no
+   * such transition
+   */
+  static int transition(int state, char c) {
+    switch (state) {
+    case 0:
+      if (c >= '1' && c < '8')
+        return 57;
+      if (c == 't')
+        return 49;
+      if (c == 's')
+        return 33;
+      if (c == 'k')
+        return 29;
+      if (c == 'b')
+        return 22;
+      if (c == 92)
+        return 21;
+      if (c == '/')
+        return 15;
+      if (c == '.')
+        return 14;
+      if (c == ')')
+        return 13;
+      if (c == '(')
+        return 12;
+      if (c == 39)
+        return 9;
+      if (c == '#')
+        return 8;
+      if (c == '"')
+        return 4;
+      if (c == 10)
+        return 3;
+      if (c == 13)
+        return 3;
+      if (c < 10)
+        return 1;
+      if (c >= 11 && c < 13)
+        return 1;
+      if (c >= 14 && c < '!')
+        return 1;
+      return -1;
+    case 1:
+      if (c < 10)
+        return 1;
+      if (c >= 11 && c < 13)
+        return 1;
+      if (c >= 14 && c < '!')
+        return 1;
+      return -1;
+    case 4:
+      if (c == '"')
+        return 7;
+      if (c < 9)
+        return 4;
+      if (c >= 11 && c < 13)
+        return 4;
+      if (c >= 14 && c < '"')
+        return 4;
+      if (c >= '#' && c < 92)
+        return 4;
+      if (c >= ']')
+        return 4;
+      if (c == 92)
+        return 5;
+      return -1;
+    case 5:
+      if (c < 9)
+        return 4;
+      if (c >= 11 && c < 13)
+        return 4;
+      if (c >= 14 && c < '"')
+        return 4;
+      if (c >= '#' && c < 92)
+        return 4;
+      if (c >= ']')
+        return 4;
+      if (c == 92)
+        return 5;
+      if (c == '"')
+        return 6;
+      return -1;
+    case 6:
+      if (c == '"')
+        return 7;
+      if (c < 9)
+        return 4;
+      if (c >= 11 && c < 13)
+        return 4;
+      if (c >= 14 && c < '"')
+        return 4;
+      if (c >= '#' && c < 92)
+        return 4;
+      if (c >= ']')
+        return 4;
+      if (c == 92)
+        return 5;
+      return -1;
+    case 8:
+      if (c >= '1' && c < '8')
+        return 57;
+      return -1;
+    case 9:
+      if (c < 9)
+        return 9;
+      if (c >= 11 && c < 13)
+        return 9;
+      if (c >= 14 && c < 39)
+        return 9;
+      if (c >= '(' && c < 92)
+        return 9;
+      if (c >= ']')
+        return 9;
+      if (c == 92)
+        return 10;
+      if (c == 39)
+        return 7;
+      return -1;
+    case 10:
+      if (c < 9)
+        return 9;
+      if (c >= 11 && c < 13)
+        return 9;
+      if (c >= 14 && c < 39)
+        return 9;
+      if (c >= '(' && c < 92)
+        return 9;
+      if (c >= ']')
+        return 9;
+      if (c == 92)
+        return 10;
+      if (c == 39)
+        return 11;
+      return -1;
+    case 11:
+      if (c < 9)
+        return 9;
+      if (c >= 11 && c < 13)
+        return 9;
+      if (c >= 14 && c < 39)
+        return 9;
+      if (c >= '(' && c < 92)
+        return 9;
+      if (c >= ']')
+        return 9;
+      if (c == 92)
+        return 10;
+      if (c == 39)
+        return 7;
+      return -1;
+    case 15:
+      if (c == '/')
+        return 20;
+      if (c == '*')
+        return 16;
+      return -1;
+    case 16:
+      if (c == '*')
+        return 16;
+      if (c == '/')
+        return 19;
+      if (c < '*')
+        return 17;
+      if (c >= '+' && c < '/')
+        return 17;
+      if (c >= '0')
+        return 17;
+      return -1;
+    case 17:
+      if (c == '*')
+        return 16;
+      if (c < '*')
+        return 17;
+      if (c >= '+' && c < '/')
+        return 17;
+      if (c >= '0')
+        return 17;
+      if (c == '/')
+        return 18;
+      return -1;
+    case 18:
+      if (c == '*')
+        return 16;
+      if (c < '*')
+        return 17;
+      if (c >= '+' && c < '/')
+        return 17;
+      if (c >= '0')
+        return 17;
+      if (c == '/')
+        return 18;
+      return -1;
+    case 20:
+      if (c < 10)
+        return 20;
+      if (c >= 11 && c < 13)
+        return 20;
+      if (c >= 14)
+        return 20;
+      return -1;
+    case 22:
+      if (c >= '1' && c < '8')
+        return 57;
+      if (c == 'e')
+        return 23;
+      return -1;
+    case 23:
+      if (c == 'a')
+        return 24;
+      return -1;
+    case 24:
+      if (c == 't')
+        return 25;
+      return -1;
+    case 25:
+      if (c == 's')
+        return 26;
+      return -1;
+    case 26:
+      if (c == ':')
+        return 27;
+      return -1;
+    case 27:
+      if (c >= '0' && c < ':')
+        return 28;
+      return -1;
+    case 29:
+      if (c == 'e')
+        return 30;
+      return -1;
+    case 30:
+      if (c == 'y')
+        return 31;
+      return -1;
+    case 31:
+      if (c == ':')
+        return 32;
+      return -1;
+    case 33:
+      if (c == 'u')
+        return 42;
+      if (c == 'm')
+        return 34;
+      return -1;
+    case 34:
+      if (c == 'a')
+        return 35;
+      return -1;
+    case 35:
+      if (c == 'l')
+        return 36;
+      return -1;
+    case 36:
+      if (c == 'l')
+        return 37;
+      return -1;
+    case 37:
+      if (c == 't')
+        return 38;
+      return -1;
+    case 38:
+      if (c == 'e')
+        return 39;
+      return -1;
+    case 39:
+      if (c == 'x')
+        return 40;
+      return -1;
+    case 40:
+      if (c == 't')
+        return 41;
+      return -1;
+    case 42:
+      if (c == 'b')
+        return 43;
+      return -1;
+    case 43:
+      if (c == 't')
+        return 44;
+      return -1;
+    case 44:
+      if (c == 'i')
+        return 45;
+      return -1;
+    case 45:
+      if (c == 't')
+        return 46;
+      return -1;
+    case 46:
+      if (c == 'l')
+        return 47;
+      return -1;
+    case 47:
+      if (c == 'e')
+        return 48;
+      return -1;
+    case 49:
+      if (c == 'i')
+        return 53;
+      if (c == 'e')
+        return 50;
+      return -1;
+    case 50:
+      if (c == 'x')
+        return 51;
+      return -1;
+    case 51:
+      if (c == 't')
+        return 52;
+      return -1;
+    case 53:
+      if (c == 't')
+        return 54;
+      return -1;
+    case 54:
+      if (c == 'l')
+        return 55;
+      return -1;
+    case 55:
+      if (c == 'e')
+        return 56;
+      return -1;
+    case 57:
+      if (c == '2')
+        return 59;
+      if (c >= '4' && c < '8')
+        return 59;
+      if (c == '9')
+        return 59;
+      if (c == 39)
+        return 58;
+      if (c == '+')
+        return 58;
+      if (c == '-')
+        return 58;
+      return -1;
+    case 58:
+      if (c == '2')
+        return 59;
+      if (c >= '4' && c < '8')
+        return 59;
+      if (c == '9')
+        return 59;
+      return -1;
+    default:
+      return -1;
+    }
+  }
+}
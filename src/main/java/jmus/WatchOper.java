@@ -0,0 +1,187 @@
+package jmus;
+
+import static jmus.MusUtil.*;
+import static js.base.Tools.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Arrays;
+import java.util.List;
+
+import jmus.PagePlotter.PlotRow;
+import jmus.gen.MusicKey;
+import jmus.gen.Song;
+import jmus.gen.SongConfig;
+import jmus.gen.Style;
+import js.app.AppOper;
+import js.file.Files;
+import js.geometry.IRect;
+
+/**
+ * Watches a song's source file, and re-renders it whenever it is saved.
+ *
+ * The PagePlotter (and its page image) is kept between renders. Only the rows
+ * of the page whose sections (or positions) have changed are cleared and
+ * replotted, and the png is only rewritten if some pixels have changed
+ */
+public class WatchOper extends AppOper {
+
+  @Override
+  public String userCommand() {
+    return "watch";
+  }
+
+  @Override
+  public String getHelpDescription() {
+    return "re-render a song whenever its source changes";
+  }
+
+  @Override
+  public SongConfig defaultArgs() {
+    return SongConfig.DEFAULT_INSTANCE;
+  }
+
+  @Override
+  public void perform() {
+    mConfig = config();
+    mSourceFile = mConfig.input();
+    if (Files.empty(mSourceFile))
+      setError("Please specify a source file");
+    // Watch mode only updates a rasterized page
+    mOutputFile = Files.setExtension(SongOper.outputFile(mConfig), "png");
+    mStyle = style(mConfig.style());
+    if (nonEmpty(mConfig.scale()))
+      mKey = musicKey(mConfig.scale());
+    mPlotter = new PagePlotter(mConfig.rasterMode(), mStyle);
+    mPlotter.setCompressionLevel(mConfig.pngCompressionLevel());
+
+    update();
+    watch();
+  }
+
+  private void watch() {
+    Path sourcePath = mSourceFile.getAbsoluteFile().toPath();
+    Path dir = sourcePath.getParent();
+    try (WatchService watchService = FileSystems.getDefault().newWatchService()) {
+      // Editors often save by writing a new file and renaming it, so watch for creation too
+      dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+      pr("Watching:", mSourceFile);
+      while (true) {
+        WatchKey key = watchService.take();
+        boolean changed = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+          if (sourcePath.getFileName().equals(event.context()))
+            changed = true;
+        }
+        checkState(key.reset(), "Can no longer watch directory:", dir);
+        if (changed)
+          update();
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    } catch (InterruptedException e) {
+      // Stop watching
+    }
+  }
+
+  /**
+   * Re-read the source file, and update the png if necessary
+   */
+  private void update() {
+    long startTime = System.nanoTime();
+
+    String text;
+    try {
+      text = new String(java.nio.file.Files.readAllBytes(mSourceFile.toPath()), StandardCharsets.UTF_8);
+    } catch (IOException e) {
+      pr("*** Failed to read:", mSourceFile, e.getMessage());
+      return;
+    }
+    // The same save can generate several events
+    if (text.equals(mSourceText))
+      return;
+    mSourceText = text;
+
+    Song song;
+    try {
+      song = new SongParser(text, mSourceFile.getName()).parse();
+    } catch (Throwable t) {
+      pr("***", t.getMessage());
+      return;
+    }
+
+    mPlotter.setKey(mKey);
+    List<PlotRow> rows = mPlotter.measureSong(song, mStyle);
+    List<IRect> dirtyRegions = dirtyRegions(mRows, rows, mStyle);
+    mRows = rows;
+    if (dirtyRegions.isEmpty()) {
+      report(startTime, "no visible change");
+      return;
+    }
+
+    List<int[]> previousPixels = arrayList();
+    for (IRect r : dirtyRegions)
+      previousPixels.add(mPlotter.pixels(r));
+
+    mPlotter.setKey(mKey);
+    mPlotter.plotSong(song, mStyle, dirtyRegions);
+
+    boolean pixelsChanged = !mWritten;
+    for (int i = 0; i < dirtyRegions.size() && !pixelsChanged; i++)
+      pixelsChanged = !Arrays.equals(previousPixels.get(i), mPlotter.pixels(dirtyRegions.get(i)));
+    if (!pixelsChanged) {
+      report(startTime, "no pixels changed");
+      return;
+    }
+    mPlotter.generateOutputFile(mOutputFile);
+    mWritten = true;
+    report(startTime, "replotted", dirtyRegions.size(), "region(s); cached rows:", mPlotter.rowCacheHits(),
+        "rendered rows:", mPlotter.rowCacheMisses());
+  }
+
+  /**
+   * Determine which regions of the page need replotting, given the rows of the
+   * previous and current versions of the song; each changed row's region
+   * includes any glyphs that extend past its bounds
+   */
+  static List<IRect> dirtyRegions(List<PlotRow> previousRows, List<PlotRow> rows, Style style) {
+    List<IRect> regions = arrayList();
+    if (previousRows == null) {
+      regions.add(PAGE_FULL);
+      return regions;
+    }
+    int rowCount = Math.max(previousRows.size(), rows.size());
+    for (int i = 0; i < rowCount; i++) {
+      PlotRow previous = (i < previousRows.size()) ? previousRows.get(i) : null;
+      PlotRow current = (i < rows.size()) ? rows.get(i) : null;
+      if (previous != null && previous.equals(current))
+        continue;
+      if (previous != null)
+        regions.add(previous.paintedBounds(style));
+      if (current != null)
+        regions.add(current.paintedBounds(style));
+    }
+    return regions;
+  }
+
+  private void report(long startTime, Object... messages) {
+    pr(String.format("%6.1f ms:", (System.nanoTime() - startTime) / 1e6), SongLexer.join(messages));
+  }
+
+  private SongConfig mConfig;
+  private File mSourceFile;
+  private File mOutputFile;
+  private Style mStyle;
+  private MusicKey mKey;
+  private PagePlotter mPlotter;
+  private String mSourceText;
+  private List<PlotRow> mRows;
+  private boolean mWritten;
+}
@@ -0,0 +1,76 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2021 Jeff Sember
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ **/
+package jmus;
+
+import static jmus.MusUtil.*;
+import static js.base.Tools.*;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Test;
+
+import jmus.gen.RasterMode;
+import jmus.gen.Song;
+import jmus.gen.Style;
+import js.testutil.MyTestCase;
+
+public class BandedRenderingTest extends MyTestCase {
+
+  @Test
+  public void bandsMatchWholePage() throws Exception {
+    loadTools();
+    Style style = style(0);
+    Song song = new SongParser(new File("samples/bojangles.txt")).parse();
+    DisplayList d = new SongLayout(style).layout(PackedSection.pack(song), null);
+
+    for (RasterMode mode : RasterMode.values()) {
+      PagePlotter p = new PagePlotter(mode, style);
+      p.render(d);
+      int[] expected = p.pixels(PAGE_FULL);
+
+      File file = File.createTempFile("banded", ".png");
+      file.deleteOnExit();
+      PagePlotter.writeBands(d, mode, PngEncoder.DEFAULT_COMPRESSION_LEVEL, file);
+      BufferedImage img = ImageIO.read(file);
+      int[] actual = img.getRGB(0, 0, img.getWidth(), img.getHeight(), null, 0, img.getWidth());
+
+      assertEquals(expected.length, actual.length);
+      for (int i = 0; i < expected.length; i++) {
+        int a = actual[i];
+        int b = expected[i];
+        for (int shift = 0; shift < 24; shift += 8) {
+          int diff = Math.abs(((a >> shift) & 0xff) - ((b >> shift) & 0xff));
+          assertTrue(mode + " pixel " + i + " differs; banded: " + Integer.toHexString(a) + " page: "
+              + Integer.toHexString(b), diff <= MAX_CHANNEL_DIFFERENCE);
+        }
+      }
+    }
+  }
+
+  private static final int MAX_CHANNEL_DIFFERENCE = 2;
+}
@@ -0,0 +1,107 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2021 Jeff Sember
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ **/
+package jmus;
+
+import static js.base.Tools.*;
+
+import java.io.File;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import jmus.gen.SongConfig;
+import js.file.Files;
+import js.testutil.MyTestCase;
+
+public class BatchRendererTest extends MyTestCase {
+
+  @Before
+  public void writeSongs() throws Exception {
+    mDir = java.nio.file.Files.createTempDirectory("batch").toFile();
+    mOutput = new File(mDir, "out");
+    Files.S.writeString(new File(mDir, "big.txt"), Files.readString(new File("samples/bojangles.txt")));
+    Files.S.writeString(new File(mDir, "small.txt"), "title \"Small\" 1 4 5 1\n");
+    // A title must be followed by a string
+    Files.S.writeString(new File(mDir, "broken.txt"), "1 4 title 5\n");
+    Files.S.writeString(new File(mDir, "notes.md"), "not a song\n");
+  }
+
+  @After
+  public void deleteSongs() {
+    deleteTree(mDir);
+  }
+
+  @Test
+  public void directoryIsScannedLargestFirst() {
+    loadTools();
+    List<File> files = new BatchRenderer(config(mDir)).sourceFiles();
+    assertEquals("[big.txt, small.txt, broken.txt]", names(files));
+  }
+
+  @Test
+  public void globSelectsMatchingFiles() {
+    loadTools();
+    List<File> files = new BatchRenderer(config(new File(mDir, "b*.txt"))).sourceFiles();
+    assertEquals("[big.txt, broken.txt]", names(files));
+    assertTrue(BatchRenderer.isBatchInput(new File(mDir, "b*.txt")));
+    assertFalse(BatchRenderer.isBatchInput(new File(mDir, "big.txt")));
+  }
+
+  @Test
+  public void failuresDontStopTheRun() {
+    loadTools();
+    BatchRenderer renderer = new BatchRenderer(config(mDir));
+    renderer.render();
+    assertEquals(1, renderer.failures().size());
+    assertTrue(renderer.failures().get(0).contains("broken.txt"));
+    assertTrue(new File(mOutput, "big.png").exists());
+    assertTrue(new File(mOutput, "small.png").exists());
+    assertFalse(new File(mOutput, "broken.png").exists());
+  }
+
+  private SongConfig config(File input) {
+    return SongConfig.newBuilder().input(input).output(mOutput).threads(2).build();
+  }
+
+  private static String names(List<File> files) {
+    List<String> names = arrayList();
+    for (File f : files)
+      names.add(f.getName());
+    return names.toString();
+  }
+
+  private static void deleteTree(File file) {
+    File[] children = file.listFiles();
+    if (children != null)
+      for (File child : children)
+        deleteTree(child);
+    file.delete();
+  }
+
+  private File mDir;
+  private File mOutput;
+}
@@ -0,0 +1,80 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2021 Jeff Sember
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ **/
+package jmus;
+
+import static js.base.Tools.*;
+
+import java.io.File;
+import java.util.List;
+
+import org.junit.Test;
+
+import jmus.gen.SectionType;
+import jmus.gen.Song;
+import js.testutil.MyTestCase;
+
+public class CachedSongTest extends MyTestCase {
+
+  @Test
+  public void roundTrip() {
+    loadTools();
+    for (File f : new File("samples").listFiles()) {
+      if (!f.getName().endsWith(".txt"))
+        continue;
+      Song song = new SongParser(f).parse();
+      byte[] encoded = CachedSong.encode(song);
+      assertEquals(f.getName(), song, new CachedSong(encoded).toSong());
+    }
+  }
+
+  @Test
+  public void lazySections() {
+    loadTools();
+    Song song = new SongParser(new File("samples/bojangles.txt")).parse();
+    CachedSong cached = new CachedSong(CachedSong.encode(song));
+    assertEquals(song.sections().size(), cached.sectionCount());
+    for (int i = cached.sectionCount() - 1; i >= 0; i--) {
+      assertEquals(song.sections().get(i).type(), cached.sectionType(i));
+      if (cached.sectionType(i) == SectionType.CHORD_SEQUENCE)
+        assertEquals(song.sections().get(i), cached.section(i));
+    }
+  }
+
+  @Test
+  public void packedSections() {
+    loadTools();
+    for (File f : new File("samples").listFiles()) {
+      if (!f.getName().endsWith(".txt"))
+        continue;
+      Song song = new SongParser(f).parse();
+      List<PackedSection> packed = PackedSection.pack(song);
+      assertEquals(f.getName(), song, PackedSection.unpack(packed));
+      CachedSong cached = new CachedSong(CachedSong.encode(song));
+      for (int i = 0; i < cached.sectionCount(); i++)
+        assertEquals(f.getName(), packed.get(i), cached.packedSection(i));
+    }
+  }
+
+}
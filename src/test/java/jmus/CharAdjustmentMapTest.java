@@ -0,0 +1,113 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2021 Jeff Sember
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ **/
+package jmus;
+
+import static jmus.MusUtil.*;
+import static js.base.Tools.*;
+
+import java.awt.Font;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import js.geometry.IRect;
+import js.testutil.MyTestCase;
+
+public class CharAdjustmentMapTest extends MyTestCase {
+
+  // Keep the maps these tests measure out of the user's disk cache
+  @Before
+  public void useTemporaryCache() throws Exception {
+    mCacheDir = Files.createTempDirectory("charAdjustments").toFile();
+    CharAdjustmentMap.setCacheDir(mCacheDir);
+  }
+
+  @After
+  public void restoreCache() {
+    CharAdjustmentMap.setCacheDir(null);
+    for (File f : mCacheDir.listFiles())
+      f.delete();
+    mCacheDir.delete();
+  }
+
+  @Test
+  public void concurrentRequestsShareOneMap() throws Exception {
+    loadTools();
+    // A size that no style uses, so the map isn't already in memory
+    Font font = style(0).paintChord().font().deriveFont(37f);
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Callable<CharAdjustmentMap>> tasks = arrayList();
+      for (int i = 0; i < 16; i++)
+        tasks.add(() -> CharAdjustmentMap.forFont(font));
+      CharAdjustmentMap first = null;
+      for (Future<CharAdjustmentMap> f : executor.invokeAll(tasks)) {
+        if (first == null)
+          first = f.get();
+        assertSame(first, f.get());
+      }
+      assertNotNull(first.getRect('♭'));
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void anyCharacterCanBeAdjusted() {
+    loadTools();
+    Font font = style(0).paintChord().font();
+    CharAdjustmentMap adjustments = CharAdjustmentMap.forFont(font);
+    String text = "Qu€ ☺";
+    adjustments.prepare(text);
+    IRect[] expected = TextUtil.calcCharacterBounds(font, text);
+    for (int i = 0; i < text.length(); i++)
+      assertEquals(expected[i], adjustments.getRect(text.charAt(i)));
+    assertNull(adjustments.getRect(' '));
+  }
+
+  @Test
+  public void measurementsAreCachedOnDisk() {
+    loadTools();
+    Font font = style(0).paintChord().font().deriveFont(29f);
+    CharAdjustmentMap.forFont(font).prepare("Ω");
+    File[] files = mCacheDir.listFiles((dir, name) -> name.endsWith(".json"));
+    assertEquals(1, files.length);
+
+    // A new map for the font (as another process would construct) reads the measurements
+    CharAdjustmentMap.setCacheDir(mCacheDir);
+    CharAdjustmentMap adjustments = CharAdjustmentMap.forFont(font);
+    assertTrue(adjustments.toJson().getMap("entries").keySet().contains("Ω"));
+  }
+
+  private File mCacheDir;
+}
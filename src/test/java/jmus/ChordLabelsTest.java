@@ -0,0 +1,115 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2021 Jeff Sember
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ **/
+package jmus;
+
+import static jmus.MusUtil.*;
+import static js.base.Tools.*;
+
+import org.junit.Test;
+
+import jmus.gen.Accidental;
+import jmus.gen.ChordType;
+import jmus.gen.OptType;
+import jmus.gen.Style;
+import js.testutil.MyTestCase;
+
+public class ChordLabelsTest extends MyTestCase {
+
+  @Test
+  public void nashville() {
+    loadTools();
+    ChordLabels labels = ChordLabels.forKey(null);
+    assertEquals("1", labels.label(PackedChord.pack(1, Accidental.NONE, ChordType.MAJOR, OptType.NONE)));
+    int code = PackedChord.pack(3, Accidental.FLAT, ChordType.MINOR, OptType.SEVEN);
+    assertEquals("♭3⁻⁷", labels.label(code));
+    assertEquals(".", labels.label(PackedChord.BEAT));
+  }
+
+  @Test
+  public void keyWithSlashChord() {
+    loadTools();
+    ChordLabels labels = ChordLabels.forKey(musicKey("a"));
+    int code = PackedChord.withSlash(PackedChord.pack(4, Accidental.NONE, ChordType.MAJOR, OptType.NONE),
+        PackedChord.pack(5, Accidental.NONE, ChordType.MAJOR, OptType.NONE));
+    assertEquals("D/E", labels.label(code));
+    // Labels are built only once
+    assertSame(labels.label(code), labels.label(PackedChord.withBeatNumber(code, 2)));
+  }
+
+  @Test
+  public void longLabelsAreShifted() {
+    loadTools();
+    Style style = style(0);
+    int shift = (int) (-style.meanChordWidthPixels() * .18f);
+    ChordLabels numbers = ChordLabels.forKey(null);
+    ChordLabels keyOfC = ChordLabels.forKey(musicKey("c"));
+    int one = chord(1, Accidental.NONE, ChordType.MAJOR, OptType.NONE);
+    int oneSeven = chord(1, Accidental.NONE, ChordType.MAJOR, OptType.SEVEN);
+    int flatThree = chord(3, Accidental.FLAT, ChordType.MAJOR, OptType.NONE);
+    int flatThreeSeven = chord(3, Accidental.FLAT, ChordType.MAJOR, OptType.SEVEN);
+    int flatThreeMinorSeven = chord(3, Accidental.FLAT, ChordType.MINOR, OptType.SEVEN);
+    int slash = PackedChord.withSlash(flatThreeSeven, one);
+
+    assertEquals(0, numbers.xOffset(one, style));
+    assertEquals(0, numbers.xOffset(oneSeven, style));
+    assertEquals(0, numbers.xOffset(flatThree, style));
+    assertEquals(shift, numbers.xOffset(flatThreeSeven, style));
+    assertEquals(shift, numbers.xOffset(flatThreeMinorSeven, style));
+    assertEquals(0, numbers.xOffset(slash, style));
+    assertEquals(0, numbers.xOffset(PackedChord.BEAT, style));
+
+    // C, C⁷, D♯, D♯⁷
+    assertEquals(0, keyOfC.xOffset(one, style));
+    assertEquals(0, keyOfC.xOffset(oneSeven, style));
+    assertEquals(0, keyOfC.xOffset(flatThree, style));
+    assertEquals(shift, keyOfC.xOffset(flatThreeSeven, style));
+  }
+
+  private static int chord(int number, Accidental accidental, ChordType type, OptType optType) {
+    return PackedChord.pack(number, accidental, type, optType);
+  }
+
+  @Test
+  public void concurrentSlashLabels() throws Exception {
+    loadTools();
+    ChordLabels labels = ChordLabels.forKey(musicKey("d-flat"));
+    int[] codes = LabelAtlasTest.sampleChords();
+    String[][] results = new String[4][codes.length];
+    Thread[] threads = new Thread[results.length];
+    for (int t = 0; t < threads.length; t++) {
+      String[] result = results[t];
+      threads[t] = new Thread(() -> {
+        for (int i = 0; i < codes.length; i++)
+          result[i] = labels.label(codes[i]);
+      });
+      threads[t].start();
+    }
+    for (Thread thread : threads)
+      thread.join();
+    for (int i = 0; i < codes.length; i++)
+      for (String[] result : results)
+        assertSame(labels.label(codes[i]), result[i]);
+  }
+}
@@ -0,0 +1,118 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2021 Jeff Sember
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ **/
+package jmus;
+
+import static jmus.MusUtil.*;
+import static js.base.Tools.*;
+
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import jmus.gen.Style;
+import js.geometry.IRect;
+import js.testutil.MyTestCase;
+
+public class FontProfileTest extends MyTestCase {
+
+  @Test
+  public void positionsMatchMetricsAndAdjustments() {
+    loadTools();
+    ChordLabels labels = ChordLabels.forKey(musicKey("e-flat"));
+    ChordLabels numbers = ChordLabels.forKey(null);
+    for (int styleIndex = 0; styleIndex < styleCount(); styleIndex++) {
+      Style style = style(styleIndex);
+      for (Font font : new Font[] { style.paintChord().font(), style.paintChordSmall().font() }) {
+        FontProfile profile = FontProfile.forFont(font);
+        Graphics2D g = SongLayout.scratchGraphics();
+        g.setFont(font);
+        FontMetrics metrics = g.getFontMetrics();
+        assertEquals(metrics.getAscent(), profile.ascent());
+        assertEquals(metrics.getHeight(), profile.height());
+        for (int code : LabelAtlasTest.sampleChords()) {
+          for (String label : new String[] { labels.label(code), numbers.label(code) }) {
+            int[] expected = referencePositions(metrics, label);
+            int[] positions = profile.charPositions(label, new int[expected.length]);
+            assertEquals(Arrays.toString(expected), Arrays.toString(positions));
+            assertEquals(expected[label.length()], profile.width(label));
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void positionsBufferIsReused() {
+    loadTools();
+    FontProfile profile = FontProfile.forPaint(style(0).paintChord());
+    assertSame(profile, FontProfile.forPaint(style(0).paintChord()));
+    int[] buffer = new int[8];
+    assertSame(buffer, profile.charPositions("♭7⁻⁷", buffer));
+    assertEquals(7, profile.charPositions("♭7⁻⁷♭7", new int[2]).length);
+  }
+
+  @Test
+  public void charactersOutsideTableMatchReference() {
+    loadTools();
+    Font font = style(0).paintChord().font();
+    FontProfile profile = FontProfile.forFont(font);
+    Graphics2D g = SongLayout.scratchGraphics();
+    g.setFont(font);
+    // These characters are held outside the profile's table
+    String text = "中✓A⟨中";
+    int[] expected = referencePositions(g.getFontMetrics(), text);
+    for (int pass = 0; pass < 2; pass++) {
+      assertEquals(Arrays.toString(expected), Arrays.toString(profile.charPositions(text, null)));
+      assertEquals(expected[text.length()], profile.width(text));
+    }
+  }
+
+  /**
+   * Determine character positions by consulting the metrics and the
+   * CharAdjustmentMap directly
+   */
+  private static int[] referencePositions(FontMetrics metrics, String text) {
+    CharAdjustmentMap adjustments = CharAdjustmentMap.forFont(metrics.getFont());
+    int[] positions = new int[text.length() + 1];
+    int x = 0;
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      int cw = metrics.charWidth(c);
+      IRect rect = adjustments.getRect(c);
+      if (rect != null) {
+        int xShift = -rect.x + 1;
+        cw = rect.width - xShift + 1;
+        x += xShift;
+      }
+      positions[i] = x;
+      x += cw;
+    }
+    positions[text.length()] = x;
+    return positions;
+  }
+}
@@ -0,0 +1,70 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2021 Jeff Sember
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ **/
+package jmus;
+
+import static jmus.MusUtil.*;
+import static js.base.Tools.*;
+
+import jmus.gen.Style;
+
+/**
+ * Measures the time to plot quiz-style pages of chords (a row of chords per
+ * key, for several keys) with chord labels drawn a character at a time versus
+ * from a LabelAtlas.
+ *
+ * LabelAtlasBenchmark [page count]
+ */
+public class LabelAtlasBenchmark {
+
+  public static void main(String[] args) {
+    loadTools();
+    int pageCount = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+    Style style = style(0);
+    String[] keyNames = { "e-flat", "g", "f", "d", "b-flat" };
+
+    for (boolean useAtlas : new boolean[] { false, true }) {
+      PagePlotter p = new PagePlotter();
+      p.setUseLabelAtlas(useAtlas);
+      // Warm up (fonts, adjustment maps, atlas sprites, JIT)
+      for (int i = 0; i < 3; i++)
+        plotPage(p, style, keyNames);
+
+      long startTime = System.nanoTime();
+      for (int i = 0; i < pageCount; i++)
+        plotPage(p, style, keyNames);
+      double ms = (System.nanoTime() - startTime) / 1e6;
+      pr(useAtlas ? "atlas:" : "chars:", String.format("%.1f ms/page", ms / pageCount));
+    }
+  }
+
+  private static void plotPage(PagePlotter p, Style style, String[] keyNames) {
+    p.setKey(null);
+    LabelAtlasTest.plotChords(p, style);
+    for (String name : keyNames) {
+      p.setKey(musicKey(name));
+      LabelAtlasTest.plotChords(p, style);
+    }
+  }
+}
@@ -0,0 +1,136 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2021 Jeff Sember
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ **/
+package jmus;
+
+import static jmus.MusUtil.*;
+import static js.base.Tools.*;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import jmus.gen.Accidental;
+import jmus.gen.ChordType;
+import jmus.gen.MusicKey;
+import jmus.gen.OptType;
+import jmus.gen.Style;
+import js.data.IntArray;
+import js.geometry.IPoint;
+import js.testutil.MyTestCase;
+
+public class LabelAtlasTest extends MyTestCase {
+
+  @Test
+  public void matchesPerCharacterRendering() {
+    loadTools();
+    for (int styleIndex = 0; styleIndex < 2; styleIndex++) {
+      Style style = style(styleIndex);
+      comparePages(style, null);
+      comparePages(style, musicKey("a-flat"));
+    }
+  }
+
+  @Test
+  public void concurrentPlotting() throws Exception {
+    loadTools();
+    Style style = style(1);
+    MusicKey key = musicKey("f-sharp");
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<int[]>> pages = arrayList();
+      for (int i = 0; i < 8; i++)
+        pages.add(executor.submit(() -> plotChords(style, key, true)));
+      int[] expected = plotChords(style, key, true);
+      for (Future<int[]> page : pages)
+        assertTrue(Arrays.equals(expected, page.get()));
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  private void comparePages(Style style, MusicKey key) {
+    int[] atlasPixels = plotChords(style, key, true);
+    int[] charPixels = plotChords(style, key, false);
+    assertEquals(charPixels.length, atlasPixels.length);
+    for (int i = 0; i < charPixels.length; i++) {
+      // Compositing a pre-rendered glyph can differ from drawing it in place by a rounding error
+      int a = atlasPixels[i];
+      int b = charPixels[i];
+      for (int shift = 0; shift < 24; shift += 8) {
+        int diff = Math.abs(((a >> shift) & 0xff) - ((b >> shift) & 0xff));
+        assertTrue("pixel " + i + " differs; atlas: " + Integer.toHexString(a) + " chars: "
+            + Integer.toHexString(b), diff <= MAX_CHANNEL_DIFFERENCE);
+      }
+    }
+  }
+
+  /**
+   * Plot a page holding a variety of chords (including slash chords and beats)
+   */
+  private static int[] plotChords(Style style, MusicKey key, boolean useAtlas) {
+    PagePlotter p = new PagePlotter();
+    p.setUseLabelAtlas(useAtlas);
+    p.setKey(key);
+    plotChords(p, style);
+    return p.pixels(PAGE_FULL);
+  }
+
+  static void plotChords(PagePlotter p, Style style) {
+    int xAdvance = style.meanChordWidthPixels() + style.chordPadX() + 8;
+    int yAdvance = style.chordHeight() + style.spacingBetweenSections();
+    int x = PAGE_CONTENT.x;
+    int y = PAGE_CONTENT.y;
+    for (int code : sampleChords()) {
+      p.plotChord(code, style, new IPoint(x, y));
+      x += xAdvance;
+      if (x + xAdvance > PAGE_CONTENT.endX()) {
+        x = PAGE_CONTENT.x;
+        y += yAdvance;
+      }
+    }
+  }
+
+  static int[] sampleChords() {
+    IntArray.Builder codes = IntArray.newBuilder();
+    for (int number = 1; number <= 7; number++) {
+      for (Accidental acc : Accidental.values())
+        codes.add(PackedChord.pack(number, acc, ChordType.MAJOR, OptType.NONE));
+      for (ChordType type : ChordType.values())
+        if (type != ChordType.BEAT)
+          codes.add(PackedChord.pack(number, Accidental.NONE, type, OptType.values()[number - 1]));
+      int main = PackedChord.pack(number, Accidental.NONE, ChordType.MAJOR, OptType.NONE);
+      codes.add(PackedChord.withSlash(main, PackedChord.pack(8 - number, Accidental.FLAT, ChordType.MAJOR,
+          OptType.NONE)));
+    }
+    codes.add(PackedChord.BEAT);
+    return codes.array();
+  }
+
+  private static final int MAX_CHANNEL_DIFFERENCE = 2;
+}
@@ -0,0 +1,78 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2021 Jeff Sember
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ **/
+package jmus;
+
+import static jmus.MusUtil.*;
+import static js.base.Tools.*;
+
+import java.io.File;
+import java.io.StringReader;
+
+import js.file.Files;
+import js.parsing.Scanner;
+
+/**
+ * Measures the cold start cost of tokenizing a song with the JSON-driven DFA
+ * (js.parsing.Scanner, loading tokens.dfa) versus the compiled TokenTables.
+ *
+ * Each mode should be run in a fresh JVM:
+ *
+ * LexerStartupBenchmark (json | compiled) [song file]
+ */
+public class LexerStartupBenchmark {
+
+  public static void main(String[] args) {
+    long startTime = System.nanoTime();
+    loadTools();
+    String mode = args[0];
+    String text = Files.readString(new File(args.length > 1 ? args[1] : "samples/your_song.txt"));
+    long readTime = System.nanoTime();
+
+    int tokenCount = 0;
+    switch (mode) {
+    default:
+      throw badArg("unsupported mode:", mode);
+    case "json": {
+      Scanner s = new Scanner(dfa(), text);
+      while (s.hasNext()) {
+        s.read();
+        tokenCount++;
+      }
+    }
+      break;
+    case "compiled": {
+      SongLexer s = new SongLexer(new StringReader(text), "benchmark");
+      while (s.hasNext()) {
+        s.read();
+        tokenCount++;
+      }
+    }
+      break;
+    }
+    long endTime = System.nanoTime();
+    pr(mode, "tokens:", tokenCount, "tokenize (ms):", (endTime - readTime) / 1e6, "total (ms):",
+        (endTime - startTime) / 1e6);
+  }
+}
@@ -0,0 +1,151 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2021 Jeff Sember
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ **/
+package jmus;
+
+import static jmus.MusUtil.*;
+import static js.base.Tools.*;
+
+import java.io.File;
+import java.util.List;
+
+import org.junit.Test;
+
+import jmus.PagePlotter.PlotRow;
+import jmus.gen.SectionType;
+import jmus.gen.Song;
+import jmus.gen.SongConfig;
+import jmus.gen.Style;
+import js.testutil.MyTestCase;
+
+public class PaginationTest extends MyTestCase {
+
+  @Test
+  public void longSongSplitsAtRowBoundaries() {
+    loadTools();
+    List<PackedSection> song = longSong();
+    List<PlotRow> rows = new SongLayout(testStyle()).layout(song, null).rows();
+    List<List<PlotRow>> pages = new SongLayout(testStyle()).paginate(song, null);
+    assertTrue("pages: " + pages.size(), pages.size() > 1);
+
+    // Apart from the repeated headers, the pages hold every row, in order
+    int headerCount = headerCount(pages.get(0));
+    List<PlotRow> pageRows = arrayList();
+    for (int i = 0; i < pages.size(); i++) {
+      List<PlotRow> page = pages.get(i);
+      pageRows.addAll(i == 0 ? page : page.subList(headerCount, page.size()));
+    }
+    assertEquals(rows, pageRows);
+  }
+
+  @Test
+  public void continuationPagesStartWithHeader() {
+    loadTools();
+    SongLayout layout = new SongLayout(testStyle());
+    List<List<PlotRow>> pages = layout.paginate(longSong(), null);
+    List<PlotRow> first = pages.get(0);
+    int headerCount = headerCount(first);
+    assertTrue(headerCount > 0);
+    List<PlotRow> firstRows = layout.layoutRows(first).rows();
+
+    for (int i = 1; i < pages.size(); i++) {
+      List<PlotRow> page = pages.get(i);
+      assertEquals(first.subList(0, headerCount), page.subList(0, headerCount));
+      List<PlotRow> laidOut = layout.layoutRows(page).rows();
+      assertEquals(page.size(), laidOut.size());
+      // The header is where it is on the first page, and the page's own rows follow it
+      for (int r = 0; r <= headerCount; r++)
+        assertEquals(firstRows.get(r).y, laidOut.get(r).y);
+      for (int r = headerCount; r < laidOut.size(); r++) {
+        assertEquals(page.get(r).sections, laidOut.get(r).sections);
+        assertTrue(laidOut.get(r).y + laidOut.get(r).height <= PAGE_CONTENT.endY());
+      }
+    }
+  }
+
+  @Test
+  public void shortSongIsOnePage() {
+    loadTools();
+    String text = "title \"Short\"\nsubtitle \"One page\"\n1 4 5 1\n";
+    List<List<PlotRow>> pages = new SongLayout(testStyle()).paginate(PackedSection.pack(parse(text)), null);
+    assertEquals(1, pages.size());
+  }
+
+  @Test
+  public void pagesAreWrittenToNumberedFiles() throws Exception {
+    loadTools();
+    File dir = java.nio.file.Files.createTempDirectory("pages").toFile();
+    try {
+      File outFile = new File(dir, "song.png");
+      SongOper.plotPages(parse(LONG_SONG), null, testStyle(), SongConfig.DEFAULT_INSTANCE, outFile);
+      int pageCount = new SongLayout(testStyle()).paginate(longSong(), null).size();
+      for (int i = 1; i <= pageCount; i++)
+        assertTrue("page " + i, new File(dir, "song-" + i + ".png").exists());
+      assertFalse(new File(dir, "song-" + (pageCount + 1) + ".png").exists());
+      assertFalse(outFile.exists());
+    } finally {
+      for (File f : dir.listFiles())
+        f.delete();
+      dir.delete();
+    }
+  }
+
+  /**
+   * Count the rows at the start of a page that hold the title or subtitle
+   */
+  private static int headerCount(List<PlotRow> page) {
+    int count = 0;
+    while (count < page.size() && hasTitle(page.get(count)))
+      count++;
+    return count;
+  }
+
+  private static boolean hasTitle(PlotRow row) {
+    for (PackedSection s : row.sections)
+      if (s.type() == SectionType.TITLE || s.type() == SectionType.SUBTITLE)
+        return true;
+    return false;
+  }
+
+  private static List<PackedSection> longSong() {
+    return PackedSection.pack(parse(LONG_SONG));
+  }
+
+  private static Song parse(String text) {
+    return new SongParser(text, "test").parse();
+  }
+
+  private static Style testStyle() {
+    return style(0);
+  }
+
+  private static final String LONG_SONG;
+
+  static {
+    StringBuilder sb = new StringBuilder("title \"Long\"\nsubtitle \"Several pages\"\n");
+    for (int i = 0; i < 80; i++)
+      sb.append("\"Line ").append(i).append("\" 1 4 5/7 6-\n");
+    LONG_SONG = sb.toString();
+  }
+}
@@ -0,0 +1,103 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2021 Jeff Sember
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ **/
+package jmus;
+
+import static jmus.MusUtil.*;
+import static js.base.Tools.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import jmus.gen.Song;
+import jmus.gen.Style;
+import js.testutil.MyTestCase;
+
+public class PdfWriterTest extends MyTestCase {
+
+  @Test
+  public void fontsAreSharedByPages() {
+    loadTools();
+    Style style = style(0);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    int pageCount = 0;
+    try (PdfWriter w = new PdfWriter(out)) {
+      for (File f : new File("samples").listFiles()) {
+        if (!f.getName().endsWith(".txt"))
+          continue;
+        Song song = new SongParser(f).parse();
+        for (DisplayList page : new SongLayout(style).layoutPages(PackedSection.pack(song), musicKey("c"))) {
+          w.addPage(page);
+          pageCount++;
+        }
+      }
+    } catch (Exception e) {
+      throw new RuntimeException(e);
+    }
+    String pdf = new String(out.toByteArray(), StandardCharsets.ISO_8859_1);
+
+    assertTrue(pdf.startsWith("%PDF-1.4"));
+    assertTrue(pdf.endsWith("%%EOF\n"));
+    assertTrue(pdf.contains("/Count " + pageCount + " "));
+    // There are only a few fonts, however many pages there are
+    int fonts = count(pdf, "/Subtype /Type3");
+    assertTrue("fonts: " + fonts, fonts > 0 && fonts <= 6);
+  }
+
+  @Test
+  public void crossReferencesPointAtObjects() {
+    loadTools();
+    Song song = new SongParser(new File("samples/bojangles.txt")).parse();
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (PdfWriter w = new PdfWriter(out)) {
+      w.addPages(new SongLayout(style(0)).layoutPages(PackedSection.pack(song), null));
+    } catch (Exception e) {
+      throw new RuntimeException(e);
+    }
+    String pdf = new String(out.toByteArray(), StandardCharsets.ISO_8859_1);
+
+    int start = pdf.lastIndexOf("startxref\n") + "startxref\n".length();
+    int xref = Integer.parseInt(pdf.substring(start, pdf.lastIndexOf("\n%%EOF")));
+    assertTrue(pdf.startsWith("xref\n", xref));
+    String[] lines = pdf.substring(xref).split("\n");
+    int objectCount = Integer.parseInt(lines[1].split(" ")[1]);
+    for (int i = 1; i < objectCount; i++) {
+      int offset = Integer.parseInt(lines[2 + i].substring(0, 10));
+      assertTrue("object " + i, pdf.startsWith(i + " 0 obj\n", offset));
+      // Each object is written exactly once
+      assertEquals("object " + i, 1, count(pdf, "\n" + i + " 0 obj\n"));
+    }
+    assertEquals(objectCount - 1, count(pdf, "endobj\n"));
+  }
+
+  private static int count(String text, String pattern) {
+    int count = 0;
+    for (int i = text.indexOf(pattern); i >= 0; i = text.indexOf(pattern, i + 1))
+      count++;
+    return count;
+  }
+}
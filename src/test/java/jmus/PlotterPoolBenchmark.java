@@ -0,0 +1,89 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2021 Jeff Sember
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ **/
+package jmus;
+
+import static jmus.MusUtil.*;
+import static js.base.Tools.*;
+
+import java.io.File;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+import jmus.gen.RasterMode;
+import jmus.gen.Song;
+import jmus.gen.Style;
+
+/**
+ * Measures the time (and garbage collection time) to render the sample charts
+ * as banded pngs, with and without pooling the band plotters.
+ *
+ * PlotterPoolBenchmark [repetitions]
+ */
+public class PlotterPoolBenchmark {
+
+  public static void main(String[] args) throws Exception {
+    loadTools();
+    int repetitions = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+    Style style = style(0);
+    File tempFile = File.createTempFile("benchmark", ".png");
+    tempFile.deleteOnExit();
+
+    List<DisplayList> pages = arrayList();
+    for (File f : new File("samples").listFiles()) {
+      if (!f.getName().endsWith(".txt"))
+        continue;
+      Song song = new SongParser(f).parse();
+      pages.addAll(new SongLayout(style).layoutPages(PackedSection.pack(song), null));
+    }
+
+    for (boolean pooling : new boolean[] { false, true, false, true }) {
+      PlotterPool.setEnabled(pooling);
+      long gcTime = gcTime();
+      long gcCount = gcCount();
+      long startTime = System.nanoTime();
+      for (int i = 0; i < repetitions; i++)
+        for (DisplayList page : pages)
+          PagePlotter.writeBands(page, RasterMode.COLOR, 1, tempFile);
+      double ms = (System.nanoTime() - startTime) / 1e6 / (repetitions * pages.size());
+      pr(pooling ? "pooled:" : "allocated:", String.format("%.1f ms/page", ms), "gc:", gcTime() - gcTime,
+          "ms in", gcCount() - gcCount, "collections");
+    }
+  }
+
+  private static long gcTime() {
+    long total = 0;
+    for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans())
+      total += Math.max(0, bean.getCollectionTime());
+    return total;
+  }
+
+  private static long gcCount() {
+    long total = 0;
+    for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans())
+      total += Math.max(0, bean.getCollectionCount());
+    return total;
+  }
+}
@@ -0,0 +1,92 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2021 Jeff Sember
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ **/
+package jmus;
+
+import static jmus.MusUtil.*;
+import static js.base.Tools.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+
+import jmus.gen.Song;
+import jmus.gen.Style;
+import js.file.Files;
+import js.graphics.ImgUtil;
+
+/**
+ * Measures the time to write the pages of the sample charts as pngs using
+ * ImgUtil.writeImage(), and using PngEncoder at several compression levels,
+ * along with the sizes of the results.
+ *
+ * PngEncoderBenchmark [repetitions]
+ */
+public class PngEncoderBenchmark {
+
+  public static void main(String[] args) throws Exception {
+    loadTools();
+    int repetitions = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+    Style style = style(0);
+    File tempFile = File.createTempFile("benchmark", ".png");
+    tempFile.deleteOnExit();
+
+    for (File f : new File("samples").listFiles()) {
+      if (!f.getName().endsWith(".txt"))
+        continue;
+      Song song = new SongParser(f).parse();
+      PagePlotter p = new PagePlotter();
+      p.plotSong(song, style);
+
+      for (int pass = 0; pass < 2; pass++) {
+        // The first pass is a warm up
+        boolean report = pass > 0;
+        long startTime = System.nanoTime();
+        for (int i = 0; i < repetitions; i++)
+          ImgUtil.writeImage(Files.S, p.image(), tempFile);
+        if (report)
+          pr(f.getName(), "ImgUtil:", summary(startTime, repetitions, tempFile.length()));
+
+        for (int level : new int[] { 1, PngEncoder.DEFAULT_COMPRESSION_LEVEL, 9 }) {
+          int size = 0;
+          startTime = System.nanoTime();
+          for (int i = 0; i < repetitions; i++) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            PngEncoder png = new PngEncoder(out, p.image().getWidth(), p.image().getHeight(),
+                p.image().getColorModel(), level);
+            png.writeRows(p.image(), p.image().getHeight());
+            png.finish();
+            size = out.size();
+          }
+          if (report)
+            pr(f.getName(), "PngEncoder level " + level + ":", summary(startTime, repetitions, size));
+        }
+      }
+    }
+  }
+
+  private static String summary(long startTime, int repetitions, long size) {
+    double ms = (System.nanoTime() - startTime) / 1e6 / repetitions;
+    return String.format("%.1f ms, %d bytes", ms, size);
+  }
+}
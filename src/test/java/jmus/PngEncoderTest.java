@@ -0,0 +1,102 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2021 Jeff Sember
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ **/
+package jmus;
+
+import static js.base.Tools.*;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Test;
+
+import js.testutil.MyTestCase;
+
+public class PngEncoderTest extends MyTestCase {
+
+  @Test
+  public void oneRow() throws Exception {
+    roundTrip(noise(17, 1, BufferedImage.TYPE_INT_RGB), 6);
+  }
+
+  @Test
+  public void manyBlocks() throws Exception {
+    // Large enough to be compressed as several blocks
+    for (int level : new int[] { 0, 1, 9 })
+      roundTrip(noise(700, 500, BufferedImage.TYPE_INT_RGB), level);
+  }
+
+  @Test
+  public void gray() throws Exception {
+    roundTrip(noise(300, 400, BufferedImage.TYPE_BYTE_GRAY), 6);
+  }
+
+  @Test
+  public void bilevel() throws Exception {
+    roundTrip(noise(301, 40, BufferedImage.TYPE_BYTE_BINARY), 6);
+  }
+
+  private static BufferedImage noise(int width, int height, int type) {
+    loadTools();
+    BufferedImage img = new BufferedImage(width, height, type);
+    Random r = new Random(1965);
+    for (int y = 0; y < height; y++)
+      for (int x = 0; x < width; x++) {
+        // Mix smooth gradients (which favor the filters) with noise
+        int v = (x + y) & 0xff;
+        if (r.nextInt(4) == 0)
+          v = r.nextInt(256);
+        img.setRGB(x, y, (v << 16) | ((v * 3) & 0xff) << 8 | (x & 0xff));
+      }
+    return img;
+  }
+
+  private void roundTrip(BufferedImage img, int level) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    PngEncoder png = new PngEncoder(out, img.getWidth(), img.getHeight(), img.getColorModel(), level);
+    // Supply the rows in a few separate calls, as a banded renderer would
+    int half = img.getHeight() / 2;
+    if (half > 0)
+      png.writeRows(img.getSubimage(0, 0, img.getWidth(), half), half);
+    png.writeRows(copyRows(img, half), img.getHeight() - half);
+    png.finish();
+
+    BufferedImage result = ImageIO.read(new ByteArrayInputStream(out.toByteArray()));
+    assertEquals(img.getWidth(), result.getWidth());
+    assertEquals(img.getHeight(), result.getHeight());
+    for (int y = 0; y < img.getHeight(); y++)
+      for (int x = 0; x < img.getWidth(); x++)
+        assertEquals("level " + level + " at " + x + "," + y, img.getRGB(x, y), result.getRGB(x, y));
+  }
+
+  private static BufferedImage copyRows(BufferedImage img, int startRow) {
+    BufferedImage copy = new BufferedImage(img.getWidth(), img.getHeight() - startRow, img.getType());
+    copy.getGraphics().drawImage(img, 0, -startRow, null);
+    return copy;
+  }
+}
@@ -0,0 +1,94 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2021 Jeff Sember
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ **/
+package jmus;
+
+import static jmus.MusUtil.*;
+import static js.base.Tools.*;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import jmus.gen.RasterMode;
+import jmus.gen.Song;
+import jmus.gen.Style;
+import js.testutil.MyTestCase;
+
+public class RasterModeTest extends MyTestCase {
+
+  @Test
+  public void bilevelPagesAreBlackAndWhite() {
+    int[] pixels = plot(RasterMode.BILEVEL);
+    for (int p : pixels) {
+      int rgb = p & 0xffffff;
+      assertTrue(Integer.toHexString(rgb), rgb == 0 || rgb == 0xffffff);
+    }
+  }
+
+  @Test
+  public void modesDrawTheSameShapes() {
+    int[] color = plot(RasterMode.COLOR);
+    for (RasterMode mode : new RasterMode[] { RasterMode.GRAY, RasterMode.INDEXED }) {
+      int[] pixels = plot(mode);
+      int differences = 0;
+      for (int i = 0; i < pixels.length; i++)
+        if (dark(pixels[i]) != dark(color[i]))
+          differences++;
+      assertTrue(mode + " differences: " + differences, differences < pixels.length / 1000);
+    }
+  }
+
+  private static boolean dark(int rgb) {
+    return ((rgb >> 16) & 0xff) + ((rgb >> 8) & 0xff) + (rgb & 0xff) < 3 * 128;
+  }
+
+  private int[] plot(RasterMode mode) {
+    loadTools();
+    Style style = style(0);
+    Song song = new SongParser(new File("samples/bojangles.txt")).parse();
+    PagePlotter p = new PagePlotter(mode, style);
+    p.plotSong(song, style);
+    return p.pixels(PAGE_FULL);
+  }
+
+  @Test
+  public void resetClearsThePage() {
+    loadTools();
+    Style style = style(0);
+    PagePlotter p = PagePlotter.checkOut(RasterMode.COLOR, style);
+    int[] blank = p.pixels(PAGE_FULL);
+    p.plotSong(new SongParser(new File("samples/bojangles.txt")).parse(), style);
+    int[] plotted = p.pixels(PAGE_FULL);
+    p.checkIn();
+
+    PagePlotter q = PagePlotter.checkOut(RasterMode.COLOR, style);
+    assertSame(p, q);
+    assertTrue(Arrays.equals(blank, q.pixels(PAGE_FULL)));
+    q.plotSong(new SongParser(new File("samples/bojangles.txt")).parse(), style);
+    assertTrue(Arrays.equals(plotted, q.pixels(PAGE_FULL)));
+    q.checkIn();
+  }
+}
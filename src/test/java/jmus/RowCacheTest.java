@@ -0,0 +1,93 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2021 Jeff Sember
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ **/
+package jmus;
+
+import static jmus.MusUtil.*;
+import static js.base.Tools.*;
+
+import java.io.File;
+
+import org.junit.Test;
+
+import jmus.gen.RasterMode;
+import jmus.gen.Song;
+import jmus.gen.Style;
+import js.testutil.MyTestCase;
+
+public class RowCacheTest extends MyTestCase {
+
+  @Test
+  public void repeatedRowsAreCopied() {
+    loadTools();
+    Style style = style(0);
+    Song song = new SongParser(new File("samples/your_song.txt")).parse();
+
+    PagePlotter p = new PagePlotter();
+    p.plotSong(song, style);
+    int[] cached = p.pixels(PAGE_FULL);
+    assertTrue("no rows were cached", p.rowCacheHits() > 0);
+
+    // Plotting the song again finds all of its rows in the cache
+    PagePlotter q = new PagePlotter();
+    q.plotSong(song, style);
+    assertEquals(0, q.rowCacheMisses());
+    assertEquals(p.rowCacheHits() + p.rowCacheMisses(), q.rowCacheHits());
+
+    RowCache.setCapacity(0);
+    try {
+      PagePlotter r = new PagePlotter();
+      r.plotSong(song, style);
+      assertEquals(0, r.rowCacheHits() + r.rowCacheMisses());
+      int[] direct = r.pixels(PAGE_FULL);
+      assertEquals(direct.length, cached.length);
+      for (int i = 0; i < direct.length; i++) {
+        int a = cached[i];
+        int b = direct[i];
+        for (int shift = 0; shift < 24; shift += 8) {
+          // Compositing a row's image can differ from drawing it in place by a rounding error
+          int diff = Math.abs(((a >> shift) & 0xff) - ((b >> shift) & 0xff));
+          assertTrue("pixel " + i + " differs; cached: " + Integer.toHexString(a) + " direct: "
+              + Integer.toHexString(b), diff <= MAX_CHANNEL_DIFFERENCE);
+        }
+      }
+    } finally {
+      RowCache.setCapacity(RowCache.DEFAULT_CAPACITY);
+    }
+  }
+
+  @Test
+  public void onlyColorPagesUseCache() {
+    loadTools();
+    Style style = style(0);
+    Song song = new SongParser(new File("samples/your_song.txt")).parse();
+    for (RasterMode mode : new RasterMode[] { RasterMode.GRAY, RasterMode.BILEVEL, RasterMode.INDEXED }) {
+      PagePlotter p = new PagePlotter(mode, style);
+      p.plotSong(song, style);
+      assertEquals(0, p.rowCacheHits() + p.rowCacheMisses());
+    }
+  }
+
+  private static final int MAX_CHANNEL_DIFFERENCE = 2;
+}
@@ -0,0 +1,92 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2021 Jeff Sember
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ **/
+package jmus;
+
+import static jmus.MusUtil.*;
+import static js.base.Tools.*;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import jmus.PagePlotter.PlotRow;
+import jmus.gen.Song;
+import jmus.gen.Style;
+import js.testutil.MyTestCase;
+
+public class SongLayoutTest extends MyTestCase {
+
+  @Test
+  public void operationsLieWithinTheirRows() {
+    loadTools();
+    Style style = style(0);
+    for (File f : new File("samples").listFiles()) {
+      if (!f.getName().endsWith(".txt"))
+        continue;
+      Song song = new SongParser(f).parse();
+      DisplayList d = new SongLayout(style).layout(PackedSection.pack(song), null);
+      List<PlotRow> rows = d.rows();
+      assertEquals(d.size(), d.rowStart(rows.size()));
+      for (int r = 0; r < rows.size(); r++) {
+        PlotRow row = rows.get(r);
+        assertTrue(f.getName(), d.rowStart(r) <= d.rowStart(r + 1));
+        for (int i = d.rowStart(r); i < d.rowStart(r + 1); i++)
+          assertTrue(f.getName() + " op " + i, d.y(i) >= row.y && d.y(i) <= row.y + row.height);
+      }
+    }
+  }
+
+  @Test
+  public void displayListCanBeReplayed() {
+    loadTools();
+    Style style = style(0);
+    Song song = new SongParser(new File("samples/bojangles.txt")).parse();
+    DisplayList d = new SongLayout(style).layout(PackedSection.pack(song), null);
+
+    PagePlotter p1 = new PagePlotter();
+    p1.plotSong(song, style);
+    PagePlotter p2 = new PagePlotter();
+    p2.render(d);
+    assertTrue(Arrays.equals(p1.pixels(PAGE_FULL), p2.pixels(PAGE_FULL)));
+  }
+
+  @Test
+  public void layoutCanBeRekeyed() {
+    loadTools();
+    Style style = style(0);
+    Song song = new SongParser(new File("samples/bojangles.txt")).parse();
+    DisplayList nashville = new SongLayout(style).layout(PackedSection.pack(song), null);
+    DisplayList inKey = new SongLayout(style).layout(PackedSection.pack(song), musicKey("e-flat"));
+
+    PagePlotter p1 = new PagePlotter();
+    p1.render(nashville.withKey(musicKey("e-flat")));
+    PagePlotter p2 = new PagePlotter();
+    p2.render(inKey);
+    assertTrue(Arrays.equals(p1.pixels(PAGE_FULL), p2.pixels(PAGE_FULL)));
+    assertEquals(inKey.rows(), nashville.withKey(musicKey("e-flat")).rows());
+  }
+}
@@ -0,0 +1,124 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2021 Jeff Sember
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ **/
+package jmus;
+
+import static jmus.MusUtil.*;
+import static js.base.Tools.*;
+
+import java.io.File;
+import java.io.StringReader;
+import java.util.Random;
+
+import org.junit.Test;
+
+import js.file.Files;
+import js.json.JSMap;
+import js.parsing.Scanner;
+import js.testutil.MyTestCase;
+
+public class SongLexerTest extends MyTestCase {
+
+  @Test
+  public void generatedTablesAreCurrent() {
+    loadTools();
+    LexerGenerator g = new LexerGenerator(JSMap.fromResource(MusUtil.class, "tokens.dfa"));
+    String expected = Files.readString(new File("src/main/java/jmus/TokenTables.java"));
+    assertEquals(expected, g.generate());
+  }
+
+  @Test
+  public void compiledTablesMatchJson() {
+    loadTools();
+    LexerGenerator g = new LexerGenerator(JSMap.fromResource(MusUtil.class, "tokens.dfa"));
+    assertEquals(g.stateCount(), TokenTables.ACCEPT.length);
+    for (int state = 0; state < g.stateCount(); state++) {
+      assertEquals(g.accept(state), TokenTables.ACCEPT[state]);
+      for (int c = 0; c <= Character.MAX_VALUE; c++)
+        assertEquals(g.transition(state, (char) c), TokenTables.transition(state, (char) c));
+    }
+  }
+
+  @Test
+  public void samples() {
+    loadTools();
+    for (File f : new File("samples").listFiles()) {
+      if (!f.getName().endsWith(".txt"))
+        continue;
+      String text = Files.readString(f);
+      assertEquals(f.getName(), scannerTokens(text), lexerTokens(text));
+    }
+  }
+
+  @Test
+  public void fuzz() {
+    loadTools();
+    Random r = new Random(1965);
+    String alphabet = "1234567890b#-'+245679/\\().:\"' \t\n\rtitlesubtextsmallbeatskey/*xyz♭";
+    for (int i = 0; i < 5000; i++) {
+      int len = r.nextInt(40);
+      StringBuilder sb = new StringBuilder();
+      for (int j = 0; j < len; j++)
+        sb.append(alphabet.charAt(r.nextInt(alphabet.length())));
+      String text = sb.toString();
+      assertEquals(quote(text), scannerTokens(text), lexerTokens(text));
+    }
+  }
+
+  /**
+   * Get a description of the tokens produced by the JSON-driven
+   * js.parsing.Scanner
+   */
+  private static String scannerTokens(String text) {
+    StringBuilder sb = new StringBuilder();
+    try {
+      Scanner s = new Scanner(dfa(), text);
+      while (s.hasNext()) {
+        js.parsing.Token t = s.read();
+        sb.append(t.id()).append(':').append(t.text()).append('\n');
+      }
+    } catch (Throwable t) {
+      sb.append("*** failed\n");
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Get a description of the tokens produced by SongLexer
+   */
+  private static String lexerTokens(String text) {
+    StringBuilder sb = new StringBuilder();
+    try {
+      SongLexer s = new SongLexer(new StringReader(text), "test");
+      while (s.hasNext()) {
+        SongLexer.Token t = s.read();
+        sb.append(t.id()).append(':').append(t.text()).append('\n');
+      }
+    } catch (Throwable t) {
+      sb.append("*** failed\n");
+    }
+    return sb.toString();
+  }
+
+}
@@ -0,0 +1,140 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2021 Jeff Sember
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ **/
+package jmus;
+
+import static js.base.Tools.*;
+
+import java.io.File;
+import java.io.StringReader;
+import java.util.Random;
+import java.util.function.Supplier;
+
+import org.junit.Test;
+
+import jmus.gen.Chord;
+import jmus.gen.MusicSection;
+import jmus.gen.Song;
+import js.file.Files;
+import js.testutil.MyTestCase;
+
+public class SongParserTest extends MyTestCase {
+
+  @Test
+  public void samples() {
+    loadTools();
+    for (File f : new File("samples").listFiles()) {
+      if (!f.getName().endsWith(".txt"))
+        continue;
+      String text = Files.readString(f);
+      String expected = referenceParse(text);
+      assertEquals(f.getName(), expected, describe(() -> new SongParser(text, f.getName()).parse()));
+      assertEquals(f.getName(), expected, describe(() -> new SongParser(f).parse()));
+      assertEquals(f.getName(), expected,
+          describe(() -> new SongParser(new StringReader(text), f.getName()).parse()));
+    }
+  }
+
+  @Test
+  public void fuzz() {
+    loadTools();
+    Random r = new Random(1965);
+    String[] fragments = { " ", " ", " ", "\n", "\n", "\\", ".", "/", "(", ")", "title \"A\"", "subtitle 'b'",
+        "\"text\"", "smalltext \"x\\\"y\"", "beats:3", "beats:4", "key:\"c\"", "key:\"e-flat\"", "// note\n",
+        "/* a\n b */", "8", "x" };
+    for (int i = 0; i < 3000; i++) {
+      StringBuilder sb = new StringBuilder();
+      int count = r.nextInt(30);
+      for (int j = 0; j < count; j++) {
+        if (r.nextInt(3) == 0)
+          sb.append(fragments[r.nextInt(fragments.length)]);
+        else
+          sb.append(randomChord(r));
+        if (r.nextBoolean())
+          sb.append(' ');
+      }
+      String text = sb.toString();
+      String expected = referenceParse(text);
+      assertEquals(quote(text), expected, describe(() -> new SongParser(text, "fuzz").parse()));
+      assertEquals(quote(text), expected,
+          describe(() -> new SongParser(new StringReader(text), "fuzz").parse()));
+    }
+  }
+
+  @Test
+  public void packedChordRoundTrip() {
+    loadTools();
+    Song song = new SongParser(new File("samples/bojangles.txt")).parse();
+    for (MusicSection s : song.sections()) {
+      for (Chord c : s.chords())
+        assertEquals(c, PackedChord.toChord(PackedChord.fromChord(c)));
+    }
+  }
+
+  @Test
+  public void beatNumberLimit() {
+    loadTools();
+    assertEquals(PackedChord.MAX_BEAT_NUMBER,
+        PackedChord.beatNumber(PackedChord.withBeatNumber(1, PackedChord.MAX_BEAT_NUMBER)));
+    String longestBar = "(" + repeat("1 ", PackedChord.MAX_BEAT_NUMBER + 1) + ")";
+    new SongParser(longestBar, "limit").parse();
+    String tooLong = "(" + repeat("1 ", PackedChord.MAX_BEAT_NUMBER + 2) + ")";
+    assertEquals("*** failed", describe(() -> new SongParser(tooLong, "limit").parse()));
+  }
+
+  private static String repeat(String text, int count) {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < count; i++)
+      sb.append(text);
+    return sb.toString();
+  }
+
+  private static String randomChord(Random r) {
+    StringBuilder sb = new StringBuilder();
+    if (r.nextInt(4) == 0)
+      sb.append(r.nextBoolean() ? 'b' : '#');
+    sb.append((char) ('1' + r.nextInt(7)));
+    if (r.nextInt(3) == 0)
+      sb.append("-'+".charAt(r.nextInt(3)));
+    if (r.nextInt(3) == 0)
+      sb.append("245679".charAt(r.nextInt(6)));
+    return sb.toString();
+  }
+
+  private static String referenceParse(String text) {
+    return describe(() -> new ReferenceSongParser(text).parse());
+  }
+
+  /**
+   * Get the parsed song as a string, or a placeholder if parsing failed
+   */
+  private static String describe(Supplier<Song> parser) {
+    try {
+      return parser.get().toString();
+    } catch (Throwable t) {
+      return "*** failed";
+    }
+  }
+
+}
@@ -0,0 +1,108 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2021 Jeff Sember
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ **/
+package jmus;
+
+import static js.base.Tools.*;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import jmus.gen.MusicSection;
+import jmus.gen.SectionType;
+import jmus.gen.Song;
+import js.testutil.MyTestCase;
+
+public class SongbookParserTest extends MyTestCase {
+
+  private static final String SONGBOOK = String.join("\n", //
+      "// A songbook; title \"Not a song\" in a comment", //
+      "title \"First\"", //
+      "\"Verse: title of the day\"", //
+      "1 4 5", //
+      "/* title \"Also not a song\"", //
+      "   title \"Nor this\" */", //
+      "title \"Second\"", //
+      "smalltext 'say \"title\"'", //
+      "2- 5 1", //
+      "title \"Third\"", //
+      "6- 4", //
+      "");
+
+  @Test
+  public void titlesOutsideStringsAndCommentsSplitSongs() {
+    loadTools();
+    int[] offsets = parser(SONGBOOK).songOffsets();
+    assertEquals(3, offsets.length);
+    assertEquals(0, offsets[0]);
+    assertEquals(SONGBOOK.indexOf("title \"Second\""), offsets[1]);
+    assertEquals(SONGBOOK.indexOf("title \"Third\""), offsets[2]);
+  }
+
+  @Test
+  public void songsAreInSourceOrder() {
+    loadTools();
+    List<Song> songs = parser(SONGBOOK).parse();
+    List<String> titles = arrayList();
+    for (Song song : songs)
+      titles.add(title(song));
+    assertEquals("[First, Second, Third]", titles.toString());
+  }
+
+  @Test
+  public void unterminatedStringDoesNotSplitSong() {
+    loadTools();
+    // The scan must not resume within the (unterminated) string, where it would find a title
+    String text = "title \"First\"\n\"unterminated title\n1 4\ntitle \"Second\"\n5\n";
+    int[] offsets = parser(text).songOffsets();
+    assertEquals(2, offsets.length);
+    assertEquals(text.indexOf("title \"Second\""), offsets[1]);
+  }
+
+  @Test
+  public void errorsReportLinesWithinTheSongbook() {
+    loadTools();
+    // A key must be followed by a string
+    String text = SONGBOOK + "title \"Fourth\"\n1 4\nkey: 5\n";
+    int errorLine = SONGBOOK.split("\n", -1).length + 2;
+    try {
+      parser(text).parse();
+      fail("expected a parse error");
+    } catch (RuntimeException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("songbook(" + errorLine + ":"));
+    }
+  }
+
+  private static SongbookParser parser(String text) {
+    return new SongbookParser(text.toCharArray(), "songbook");
+  }
+
+  private static String title(Song song) {
+    for (MusicSection section : song.sections())
+      if (section.type() == SectionType.TITLE)
+        return section.textArg();
+    return null;
+  }
+}
@@ -0,0 +1,145 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2021 Jeff Sember
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ **/
+package jmus;
+
+import static jmus.MusUtil.*;
+import static js.base.Tools.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.Test;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import jmus.gen.Song;
+import jmus.gen.Style;
+import js.testutil.MyTestCase;
+
+public class SvgWriterTest extends MyTestCase {
+
+  @Test
+  public void labelsAreDefinedOnce() {
+    loadTools();
+    Song song = new SongParser(new File("samples/bojangles.txt")).parse();
+    DisplayList d = new SongLayout(style(0)).layout(PackedSection.pack(song), musicKey("c"));
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    new SvgWriter(out).write(d);
+    String svg = new String(out.toByteArray(), StandardCharsets.UTF_8);
+
+    assertTrue(svg.startsWith("<?xml"));
+    assertTrue(svg.endsWith("</svg>\n"));
+    int definitions = count(svg, "<text id=");
+    int uses = count(svg, "<use ");
+    assertTrue("definitions: " + definitions, definitions > 0);
+    assertTrue("uses: " + uses, uses > definitions);
+  }
+
+  @Test
+  public void elementsMatchDisplayList() throws Exception {
+    loadTools();
+    Style style = style(0);
+    Song song = new SongParser(new File("samples/bojangles.txt")).parse();
+    DisplayList d = new SongLayout(style).layout(PackedSection.pack(song), musicKey("e-flat"));
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    new SvgWriter(out).write(d);
+    Element svg = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+        .parse(new ByteArrayInputStream(out.toByteArray())).getDocumentElement();
+
+    // Collect the page's elements, and the ids of the labels they may refer to
+    List<Element> elements = arrayList();
+    Set<String> labelIds = new HashSet<>();
+    for (Node n = svg.getFirstChild(); n != null; n = n.getNextSibling()) {
+      if (!(n instanceof Element))
+        continue;
+      Element e = (Element) n;
+      if (e.getTagName().equals("defs")) {
+        for (Node m = e.getFirstChild(); m != null; m = m.getNextSibling())
+          if (m instanceof Element)
+            labelIds.add(((Element) m).getAttribute("id"));
+      } else if (!e.getTagName().equals("style"))
+        elements.add(e);
+    }
+
+    // Skip the background
+    int k = 1;
+    for (int i = 0; i < d.size(); i++) {
+      Element e = elements.get(k++);
+      switch (d.op(i)) {
+      default:
+        break;
+      case DisplayList.OP_BAR:
+      case DisplayList.OP_FILL:
+        assertEquals("rect", e.getTagName());
+        assertEquals(d.arg0(i), intAttr(e, "width"));
+        assertEquals(d.arg1(i), intAttr(e, "height"));
+        break;
+      case DisplayList.OP_LINE:
+        assertEquals("line", e.getTagName());
+        assertEquals(d.x(i), intAttr(e, "x1"));
+        assertEquals(d.arg1(i), intAttr(e, "y2"));
+        continue;
+      case DisplayList.OP_TEXT:
+      case DisplayList.OP_STRING:
+        assertEquals("text", e.getTagName());
+        assertEquals(d.text(i), e.getTextContent());
+        break;
+      case DisplayList.OP_CHORD: {
+        int code = d.arg0(i);
+        boolean slash = PackedChord.hasSlash(code);
+        assertEquals("use", e.getTagName());
+        assertTrue(labelIds.contains(e.getAttribute("xlink:href").substring(1)));
+        assertEquals(d.x(i) + ChordLabels.forKey(d.key(i)).xOffset(code, style), intAttr(e, "x"));
+        assertEquals(d.y(i) + (slash ? style.slashChordAdjustY() : 0), intAttr(e, "y"));
+        // A slash chord is followed by its dash and slash chord label
+        if (slash)
+          k += 2;
+        continue;
+      }
+      }
+      assertEquals(d.x(i), intAttr(e, "x"));
+      assertEquals(d.y(i), intAttr(e, "y"));
+    }
+    assertEquals(elements.size(), k);
+  }
+
+  private static int intAttr(Element e, String name) {
+    return Integer.parseInt(e.getAttribute(name));
+  }
+
+  private static int count(String text, String pattern) {
+    int count = 0;
+    for (int i = text.indexOf(pattern); i >= 0; i = text.indexOf(pattern, i + 1))
+      count++;
+    return count;
+  }
+}
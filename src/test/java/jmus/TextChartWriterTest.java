@@ -0,0 +1,91 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2021 Jeff Sember
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ **/
+package jmus;
+
+import static jmus.MusUtil.*;
+
+import java.io.StringWriter;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import jmus.gen.SectionType;
+import js.testutil.MyTestCase;
+
+public class TextChartWriterTest extends MyTestCase {
+
+  @Test
+  public void barsArePaddedToColumns() {
+    loadTools();
+    int[] verse = { code("1", 0), code("4", 1), code("5", 0) };
+    int[] tag = { code("1", 0) };
+    StringWriter out = new StringWriter();
+    new TextChartWriter(out).write(Arrays.asList(//
+        new PackedSection(SectionType.TITLE, "Song", 0, null), //
+        new PackedSection(SectionType.BEATS, null, 2, null), //
+        new PackedSection(SectionType.PARAGRAPH_BREAK, null, 0, null), //
+        new PackedSection(SectionType.TEXT, "Verse", 0, null), //
+        new PackedSection(SectionType.CHORD_SEQUENCE, null, 0, verse), //
+        new PackedSection(SectionType.LINE_BREAK, null, 0, null), //
+        new PackedSection(SectionType.CHORD_SEQUENCE, null, 0, tag) //
+    ), musicKey("c"));
+    assertEquals("Song\n" + //
+        "====\n" + //
+        "\n" + //
+        "Verse | C     F     | G     .     |\n" + //
+        "| C     .     |\n", out.toString());
+  }
+
+  @Test
+  public void songsAreSeparatedByBlankLines() {
+    loadTools();
+    StringWriter out = new StringWriter();
+    TextChartWriter w = new TextChartWriter(out);
+    for (String title : new String[] { "One", "Two" })
+      w.write(Arrays.asList(new PackedSection(SectionType.SUBTITLE, title, 0, null)), null);
+    assertEquals("One\n\nTwo\n", out.toString());
+  }
+
+  @Test
+  public void columnsFitLongestLabel() {
+    loadTools();
+    int slashChord = PackedChord.withSlash(code("4-7", 1), code("5", 0));
+    int[] first = { code("1", 0), slashChord, code("5", 0) };
+    int[] second = { code("1", 0), code("1", 0) };
+    StringWriter out = new StringWriter();
+    new TextChartWriter(out).write(Arrays.asList(//
+        new PackedSection(SectionType.BEATS, null, 2, null), //
+        new PackedSection(SectionType.CHORD_SEQUENCE, null, 0, first), //
+        new PackedSection(SectionType.LINE_BREAK, null, 0, null), //
+        new PackedSection(SectionType.CHORD_SEQUENCE, null, 0, second) //
+    ), musicKey("e-flat"));
+    assertEquals("| E♭      A♭⁻⁷/B♭ | B♭      .       |\n" + //
+        "| E♭      .       | E♭      .       |\n", out.toString());
+  }
+
+  private static int code(String text, int beatNumber) {
+    return PackedChord.withBeatNumber(PackedChord.parse(text.toCharArray(), 0, text.length()), beatNumber);
+  }
+}
@@ -0,0 +1,74 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2021 Jeff Sember
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ **/
+package jmus;
+
+import static jmus.MusUtil.*;
+import static js.base.Tools.*;
+
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+import org.junit.Test;
+
+import jmus.gen.Style;
+import js.geometry.IRect;
+import js.testutil.MyTestCase;
+
+public class TextUtilTest extends MyTestCase {
+
+  @Test
+  public void batchedBoundsMatchCanvasScans() {
+    loadTools();
+    String alphabet = "ABCDEFGabcdefgjy#/.♭♯⁻⁺ᵒ²⁴⁵⁶⁷⁹";
+    for (int styleIndex = 0; styleIndex < styleCount(); styleIndex++) {
+      Style style = style(styleIndex);
+      for (Font font : new Font[] { style.paintChord().font(), style.paintChordSmall().font(),
+          style.paintTitle().font() }) {
+        IRect[] batched = TextUtil.calcCharacterBounds(font, alphabet);
+        BufferedImage canvas = TextUtil.constructCanvasImage();
+        Graphics2D g = canvas.createGraphics();
+        g.setFont(font);
+        FontMetrics metrics = g.getFontMetrics();
+        for (int i = 0; i < alphabet.length(); i++) {
+          char c = alphabet.charAt(i);
+          IRect expected = TextUtil.calcCharacterBounds(g, canvas, metrics, c);
+          assertEquals(font + " '" + c + "'", expected, batched[i]);
+        }
+        g.dispose();
+      }
+    }
+  }
+
+  @Test
+  public void blankCharactersHaveNoBounds() {
+    loadTools();
+    IRect[] bounds = TextUtil.calcCharacterBounds(style(0).paintChord().font(), "A B");
+    assertNotNull(bounds[0]);
+    assertNull(bounds[1]);
+    assertNotNull(bounds[2]);
+  }
+}
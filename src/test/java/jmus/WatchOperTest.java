@@ -0,0 +1,69 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2021 Jeff Sember
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ **/
+package jmus;
+
+import static jmus.MusUtil.*;
+
+import java.io.File;
+import java.util.List;
+
+import org.junit.Test;
+
+import jmus.PagePlotter.PlotRow;
+import jmus.gen.Song;
+import jmus.gen.Style;
+import js.file.Files;
+import js.geometry.IRect;
+import js.testutil.MyTestCase;
+
+public class WatchOperTest extends MyTestCase {
+
+  @Test
+  public void replottingDirtyRegionsMatchesFullPlot() {
+    loadTools();
+    Style style = style(0);
+    String text = Files.readString(new File("samples/sample_song.txt"));
+    String edited = text.replace("1/5 5 27 6-", "1/5 5/2 27 6-");
+    assertFalse(text.equals(edited));
+    Song song = new SongParser(text, "before").parse();
+    Song editedSong = new SongParser(edited, "after").parse();
+
+    PagePlotter p = new PagePlotter();
+    p.plotSong(song, style);
+    List<PlotRow> rows = p.rows();
+    List<PlotRow> editedRows = p.measureSong(editedSong, style);
+    List<IRect> regions = WatchOper.dirtyRegions(rows, editedRows, style);
+    assertFalse(regions.isEmpty());
+    p.plotSong(editedSong, style, regions);
+
+    PagePlotter q = new PagePlotter();
+    q.plotSong(editedSong, style);
+    int[] incremental = p.pixels(PAGE_FULL);
+    int[] full = q.pixels(PAGE_FULL);
+    assertEquals(full.length, incremental.length);
+    for (int i = 0; i < full.length; i++)
+      assertEquals("pixel " + i, Integer.toHexString(full[i]), Integer.toHexString(incremental[i]));
+  }
+}